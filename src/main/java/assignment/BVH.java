@@ -2,8 +2,10 @@ package assignment;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface BVH
 {
@@ -53,6 +55,59 @@ public interface BVH
      */
     public Set<Shape> findCollision (Point2D.Double point);
 
+    /**
+     * Passes every object in the BVH where a point would be inside the object to a consumer, without building a set
+     *
+     * @param point     the point to detect collisions against
+     * @param consumer  called once for each triangle that contains the passed in point
+     */
+    public void findCollision (Point2D.Double point, Consumer<Shape> consumer);
+
+    /**
+     * Checks whether a point would be inside any object in the BVH, stopping at the first one found
+     *
+     * @param point   the point to detect collisions against
+     * @return        whether any triangle contains the passed in point
+     */
+    public boolean hasCollision (Point2D.Double point);
+
+    /**
+     * Finds objects in the BVH that overlap an axis-aligned box
+     *
+     * @param box     the box to detect overlaps against
+     * @return        a set of triangles that overlap the box, touching included.
+     *                returns an empty set if no triangles overlap it.
+     */
+    public Set<Shape> findOverlaps (Rectangle2D.Double box);
+
+    /**
+     * Passes every object in the BVH that overlaps an axis-aligned box to a consumer, without building a set
+     *
+     * @param box       the box to detect overlaps against
+     * @param consumer  called once for each triangle that overlaps the box, touching included
+     */
+    public void findOverlaps (Rectangle2D.Double box, Consumer<Shape> consumer);
+
+    /**
+     * Checks whether any object in the BVH overlaps an axis-aligned box, stopping at the first one found
+     *
+     * @param box     the box to detect overlaps against
+     * @return        whether any triangle overlaps the box, touching included
+     */
+    public boolean hasOverlap (Rectangle2D.Double box);
+
+    /**
+     * Finds the first object an axis-aligned box touches as it moves in a straight line
+     *
+     * @param box     the box before it moves
+     * @param dx      how far the box moves along x
+     * @param dy      how far the box moves along y
+     * @param hit     a caller-owned record that is reset, then filled in with the first triangle touched
+     *                and the fraction of the motion, from 0 to 1, completed when it is touched
+     * @return        whether the box touches any triangle along the way
+     */
+    public boolean sweepBox (Rectangle2D.Double box, double dx, double dy, SweepHit hit);
+
     /**
      * Finds the first triangle that a ray would hit
      *
@@ -64,6 +119,50 @@ public interface BVH
      */
     public Shape intersectRay (Point2D.Double origin, Vector2D direction);
 
+    /**
+     * Finds where a ray first hits a triangle, without allocating a result
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit:
+     *                      the shape, its distance from origin, the hit point and the edge struck
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay (Point2D.Double origin, Vector2D direction, RayHit hit);
+
+    /**
+     * Finds where a ray first hits a triangle, testing the shapes from the exact origin instead of the whole-number
+     * one the other overloads use. Allocates nothing.
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay (double originX, double originY, double directionX, double directionY, RayHit hit);
+
+    /**
+     * Finds the nearest hit of every ray in a batch
+     *
+     * @param batch         the rays to cast from their exact origins. each ray's hit shape, distance and point are
+     *                      written back into it.
+     * @param parallel      whether to split the batch across the cores of the fork/join pool the call runs in
+     */
+    public void intersectRays (RayBatch batch, boolean parallel);
+
+    /**
+     * Finds the nearest hit of every ray in a batch whose rays all start at the same point, the same as
+     * intersectRays. Instead of walking the tree once per ray, it finds the shapes within the rays' reach with one
+     * overlap query and tests each against only the rays pointing at its bounds, nearest shapes first. That's far
+     * cheaper when many short rays fan out around a few hundred shapes.
+     *
+     * @param batch         rays that share one origin, indexed with indexByAngle() since their directions last
+     *                      changed. each ray's hit shape, distance and point are written back into it.
+     */
+    public void intersectRayFan (RayBatch batch);
+
     /**
      * A human-readable version of a BVH.
      *
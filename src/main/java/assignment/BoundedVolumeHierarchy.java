@@ -2,15 +2,48 @@ package assignment;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class BoundedVolumeHierarchy implements BVH
 {
+    private static final int SAH_BIN_COUNT = 16;
+    private static final double SAH_TRAVERSAL_COST = 1.0;
+    private static final double SAH_INTERSECTION_COST = 1.0;
+    private static final int DEFAULT_PARALLEL_CUTOFF = 4096;
+    private static final int PARALLEL_PARTITION_CHUNK = 16384;
+    private static final int RAY_BATCH_CHUNK = 1024;
+    // how far past a shape's bounds, in radians, intersectRayFan still tests rays against it
+    private static final double FAN_ANGLE_SLACK = 1E-9;
+    // node entry times and a shape's contact time are worked out differently, so they can round an ulp apart
+    private static final double SWEEP_SLACK = Shape.EPSILON;
+
     private SplitMethod splitMethod;
+    private BalanceMethod balanceMethod;
     private BVHNode root;
+    private ForkJoinPool buildPool;
+    private int parallelCutoff;
+    private int maxLeafSize;
+    private int fatMargin;
+    private final Map<Shape, BVHNode> leafOf; // the leaf each shape instance was last put in
     private boolean shapeRemovedSuccessfully;
 
+    /**
+     * How insert() and remove() restore the tree on the way back up
+     */
+    public enum BalanceMethod
+    {
+        BALANCE_HEIGHT,       // AVL rotations that keep subtree heights within one of each other
+        BALANCE_SURFACE_AREA  // inserts next to the cheapest sibling, then rotations that shrink the children's
+                              // perimeters, whatever the heights
+    }
+
     private enum Axis
     {
         X, // x-axis
@@ -19,15 +52,31 @@ public class BoundedVolumeHierarchy implements BVH
 
     public BoundedVolumeHierarchy() {
         this.splitMethod = SplitMethod.SPLIT_MEDIAN;
+        this.balanceMethod = BalanceMethod.BALANCE_HEIGHT;
         this.root = null;
+        this.buildPool = null;
+        this.parallelCutoff = DEFAULT_PARALLEL_CUTOFF;
+        this.maxLeafSize = 1;
+        this.fatMargin = 0;
+        this.leafOf = new IdentityHashMap<>();
     }
 
     /**
-     * Constructs a BoundedVolumeHierarchy with a given list of shapes and max shapes per node.
+     * Constructs a BoundedVolumeHierarchy with a given list of shapes, one shape per leaf.
      * @param shapes The initial list of shapes to build the BVH from.
      */
     public BoundedVolumeHierarchy(List<Shape> shapes) {
+        this(shapes, 1);
+    }
+
+    /**
+     * Constructs a BoundedVolumeHierarchy with a given list of shapes and max shapes per node.
+     * @param shapes The initial list of shapes to build the BVH from.
+     * @param maxLeafSize The most shapes a leaf may hold.
+     */
+    public BoundedVolumeHierarchy(List<Shape> shapes, int maxLeafSize) {
         this();
+        setMaxLeafSize(maxLeafSize);
         buildBVH(shapes);
     }
 //
@@ -58,55 +107,629 @@ public class BoundedVolumeHierarchy implements BVH
         this.splitMethod = splitMethod;
     }
 
-    private int partitionByMedian(List<Shape> shapes, Axis axis) {
-        // sorts list based on axis
-        shapes.sort(Comparator.comparingDouble(shape -> {
-            Point2D.Double center = shape.getCenter();
-            return axis == Axis.X ? center.getX() : center.getY();
-        }));
-        return shapes.size() / 2; // returns median index
+    /**
+     * Changes how insert() and remove() rebalance the nodes above the shape they add or take away
+     *
+     * @param balanceMethod   the new balance method that insert() and remove() use
+     */
+    public void setBalanceMethod(BalanceMethod balanceMethod)
+    {
+        this.balanceMethod = balanceMethod;
+    }
+
+    /**
+     * Makes buildBVH() fork subtree builds onto the given pool. The tree is identical to a sequential build
+     * with the same split method, only the work is spread across the pool's threads.
+     *
+     * @param buildPool   the pool to build on, or null to build on the calling thread
+     */
+    public void setBuildPool(ForkJoinPool buildPool)
+    {
+        this.buildPool = buildPool;
+    }
+
+    /**
+     * Changes the subtree size below which a parallel build stops forking and finishes on one thread
+     *
+     * @param parallelCutoff   the smallest number of shapes a forked subtree build may have
+     */
+    public void setParallelCutoff(int parallelCutoff)
+    {
+        if (parallelCutoff < 2) {
+            throw new IllegalArgumentException("Parallel cutoff must be at least 2.");
+        }
+        this.parallelCutoff = parallelCutoff;
+    }
+
+    /**
+     * Lets leaves hold up to maxLeafSize shapes, which cuts the node count and replaces the bottom levels of box
+     * tests with a short loop over shapes. SPLIT_SURFACE_AREA only keeps a range of that size in one leaf when the
+     * cost model says testing all of its shapes is no worse than splitting it; the other split methods always do.
+     * Takes effect from the next buildBVH(), insert() and remove().
+     *
+     * @param maxLeafSize   the most shapes a leaf may hold, 1 for a leaf per shape
+     */
+    public void setMaxLeafSize(int maxLeafSize)
+    {
+        if (maxLeafSize < 1) {
+            throw new IllegalArgumentException("Max leaf size must be at least 1.");
+        }
+        this.maxLeafSize = maxLeafSize;
+    }
+
+    /**
+     * Grows every leaf's bounds by a margin past its shapes, so a shape that moves less than that can be refit
+     * without touching the tree. Queries stay exact because leaves still test the shapes themselves, they just
+     * visit a few more leaves. Takes effect for leaves built, inserted or refit after the call.
+     *
+     * @param fatMargin   how far past its shapes a leaf's bounds reach on every side, 0 for tight bounds
+     */
+    public void setFatMargin(int fatMargin)
+    {
+        if (fatMargin < 0) {
+            throw new IllegalArgumentException("Fat margin can't be negative.");
+        }
+        this.fatMargin = fatMargin;
+    }
+
+    /**
+     * Scratch arrays for one buildBVH() call. Every shape's center and bounds are computed once up front,
+     * and subtrees own contiguous ranges of order that are partitioned in place instead of copied.
+     */
+    private static class BuildState {
+        final Shape[] shapes;
+        final double[] centerX;
+        final double[] centerY;
+        final int[] minX;
+        final int[] minY;
+        final int[] maxX;
+        final int[] maxY;
+        final int[] order;   // indices into shapes, reordered as the tree is split
+        final int[] scratch; // holds the right side of a stable partition, same ranges as order
+
+        BuildState(List<Shape> shapeList, boolean parallel) {
+            int count = shapeList.size();
+            shapes = shapeList.toArray(new Shape[0]);
+            centerX = new double[count];
+            centerY = new double[count];
+            minX = new int[count];
+            minY = new int[count];
+            maxX = new int[count];
+            maxY = new int[count];
+            order = new int[count];
+            scratch = new int[count];
+            if (parallel) {
+                IntStream.range(0, count).parallel().forEach(this::load);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    load(i);
+                }
+            }
+        }
+
+        // Reads the triangles of a soup straight from its arrays. There are no shapes, leaves name triangles by index.
+        BuildState(TriangleSoup soup) {
+            int count = soup.size();
+            shapes = null;
+            centerX = new double[count];
+            centerY = new double[count];
+            minX = new int[count];
+            minY = new int[count];
+            maxX = new int[count];
+            maxY = new int[count];
+            order = new int[count];
+            scratch = new int[count];
+            for (int i = 0; i < count; i++) {
+                int ax = soup.getX(i, 0), bx = soup.getX(i, 1), cx = soup.getX(i, 2);
+                int ay = soup.getY(i, 0), by = soup.getY(i, 1), cy = soup.getY(i, 2);
+                centerX[i] = ((double) ax + bx + cx) / 3;
+                centerY[i] = ((double) ay + by + cy) / 3;
+                minX[i] = Math.min(ax, Math.min(bx, cx));
+                minY[i] = Math.min(ay, Math.min(by, cy));
+                maxX[i] = Math.max(ax, Math.max(bx, cx));
+                maxY[i] = Math.max(ay, Math.max(by, cy));
+                order[i] = i;
+            }
+        }
+
+        private void load(int i) {
+            Point2D.Double center = shapes[i].getCenter();
+            Point min = shapes[i].getMinSurroundingPoint();
+            Point max = shapes[i].getMaxSurroundingPoint();
+            centerX[i] = center.x;
+            centerY[i] = center.y;
+            minX[i] = min.x;
+            minY[i] = min.y;
+            maxX[i] = max.x;
+            maxY[i] = max.y;
+            order[i] = i;
+        }
+    }
+
+    // Binning buffers for the surface area heuristic, reused at every level of a build
+    private static class SplitBins {
+        final int[] count = new int[SAH_BIN_COUNT];
+        final int[] minX = new int[SAH_BIN_COUNT];
+        final int[] minY = new int[SAH_BIN_COUNT];
+        final int[] maxX = new int[SAH_BIN_COUNT];
+        final int[] maxY = new int[SAH_BIN_COUNT];
+        final int[] rightCount = new int[SAH_BIN_COUNT];
+        final double[] rightPerimeter = new double[SAH_BIN_COUNT];
+    }
+
+    /**
+     * Splits order[start, end) so the median center along the axis sits at the returned index, using
+     * quickselect instead of a full sort. Everything before it is no greater and everything after no smaller.
+     *
+     * @return the index of the first shape on the right side
+     */
+    private int partitionByMedian(BuildState state, int start, int end, Axis axis) {
+        double[] centers = axis == Axis.X ? state.centerX : state.centerY;
+        int[] order = state.order;
+        int median = start + (end - start) / 2;
+        int low = start;
+        int high = end - 1;
+        while (high > low) {
+            // median of three pivot keeps already sorted input linear
+            double pivot = medianOf(centers[order[low]], centers[order[low + (high - low) / 2]], centers[order[high]]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (centers[order[i]] < pivot) {
+                    i++;
+                }
+                while (centers[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            // [low, j] <= pivot, (j, i) == pivot, [i, high] >= pivot
+            if (median <= j) {
+                high = j;
+            } else if (median >= i) {
+                low = i;
+            } else {
+                break;
+            }
+        }
+        return median;
+    }
+
+    private double medianOf(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Splits order[start, end) around the midpoint of the centers' extent on whichever axis is wider.
+     *
+     * @return the index of the first shape on the right side, or -1 if every center is the same point
+     */
+    private int partitionByMidrange(BuildState state, int start, int end, boolean parallel) {
+        double centerMinX = Double.POSITIVE_INFINITY, centerMinY = Double.POSITIVE_INFINITY;
+        double centerMaxX = Double.NEGATIVE_INFINITY, centerMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            int index = state.order[i];
+            centerMinX = Math.min(centerMinX, state.centerX[index]);
+            centerMinY = Math.min(centerMinY, state.centerY[index]);
+            centerMaxX = Math.max(centerMaxX, state.centerX[index]);
+            centerMaxY = Math.max(centerMaxY, state.centerY[index]);
+        }
+
+        double extentX = centerMaxX - centerMinX;
+        double extentY = centerMaxY - centerMinY;
+        if (extentX <= 0 && extentY <= 0) {
+            return -1;
+        }
+        // a midpoint split is a split after the first of two bins
+        if (extentX >= extentY) {
+            return partitionByBin(state, start, end, state.centerX, centerMinX, extentX, 2, 0, parallel);
+        }
+        return partitionByBin(state, start, end, state.centerY, centerMinY, extentY, 2, 0, parallel);
+    }
+
+    /**
+     * Finds the cheapest binned surface area heuristic split of order[start, end) and partitions around it.
+     * Perimeter stands in for surface area in 2D.
+     *
+     * @return the index of the first shape on the right side, end if the range fits in a leaf and no split is
+     *         cheaper than testing all of its shapes, or -1 if no bin boundary separates the shapes
+     */
+    private int partitionBySurfaceArea(BuildState state, SplitBins bins, int start, int end, boolean parallel) {
+        double centerMinX = Double.POSITIVE_INFINITY, centerMinY = Double.POSITIVE_INFINITY;
+        double centerMaxX = Double.NEGATIVE_INFINITY, centerMaxY = Double.NEGATIVE_INFINITY;
+        int nodeMinX = Integer.MAX_VALUE, nodeMinY = Integer.MAX_VALUE;
+        int nodeMaxX = Integer.MIN_VALUE, nodeMaxY = Integer.MIN_VALUE;
+        for (int i = start; i < end; i++) {
+            int index = state.order[i];
+            centerMinX = Math.min(centerMinX, state.centerX[index]);
+            centerMinY = Math.min(centerMinY, state.centerY[index]);
+            centerMaxX = Math.max(centerMaxX, state.centerX[index]);
+            centerMaxY = Math.max(centerMaxY, state.centerY[index]);
+            nodeMinX = Math.min(nodeMinX, state.minX[index]);
+            nodeMinY = Math.min(nodeMinY, state.minY[index]);
+            nodeMaxX = Math.max(nodeMaxX, state.maxX[index]);
+            nodeMaxY = Math.max(nodeMaxY, state.maxY[index]);
+        }
+        double nodePerimeter = calcPerimeter(nodeMinX, nodeMinY, nodeMaxX, nodeMaxY);
+
+        double bestCost = Double.POSITIVE_INFINITY;
+        Axis bestAxis = null;
+        int bestBin = -1;
+        for (Axis axis : Axis.values()) {
+            double[] centers = axis == Axis.X ? state.centerX : state.centerY;
+            double centerMin = axis == Axis.X ? centerMinX : centerMinY;
+            double extent = axis == Axis.X ? centerMaxX - centerMinX : centerMaxY - centerMinY;
+            if (extent <= 0) {
+                continue; // every center lies on one line, nothing to bin on this axis
+            }
+
+            Arrays.fill(bins.count, 0);
+            Arrays.fill(bins.minX, Integer.MAX_VALUE);
+            Arrays.fill(bins.minY, Integer.MAX_VALUE);
+            Arrays.fill(bins.maxX, Integer.MIN_VALUE);
+            Arrays.fill(bins.maxY, Integer.MIN_VALUE);
+            for (int i = start; i < end; i++) {
+                int index = state.order[i];
+                int bin = calcBin(centers[index], centerMin, extent, SAH_BIN_COUNT);
+                bins.count[bin]++;
+                bins.minX[bin] = Math.min(bins.minX[bin], state.minX[index]);
+                bins.minY[bin] = Math.min(bins.minY[bin], state.minY[index]);
+                bins.maxX[bin] = Math.max(bins.maxX[bin], state.maxX[index]);
+                bins.maxY[bin] = Math.max(bins.maxY[bin], state.maxY[index]);
+            }
+
+            // sweep right to left so each boundary knows the count and perimeter of everything after it
+            int sweepCount = 0;
+            int sweepMinX = Integer.MAX_VALUE, sweepMinY = Integer.MAX_VALUE;
+            int sweepMaxX = Integer.MIN_VALUE, sweepMaxY = Integer.MIN_VALUE;
+            for (int bin = SAH_BIN_COUNT - 1; bin > 0; bin--) {
+                sweepCount += bins.count[bin];
+                if (bins.count[bin] > 0) {
+                    sweepMinX = Math.min(sweepMinX, bins.minX[bin]);
+                    sweepMinY = Math.min(sweepMinY, bins.minY[bin]);
+                    sweepMaxX = Math.max(sweepMaxX, bins.maxX[bin]);
+                    sweepMaxY = Math.max(sweepMaxY, bins.maxY[bin]);
+                }
+                bins.rightCount[bin] = sweepCount;
+                bins.rightPerimeter[bin] = sweepCount == 0 ? 0 : calcPerimeter(sweepMinX, sweepMinY, sweepMaxX, sweepMaxY);
+            }
+
+            // sweep left to right and evaluate the split after each bin
+            sweepCount = 0;
+            sweepMinX = Integer.MAX_VALUE;
+            sweepMinY = Integer.MAX_VALUE;
+            sweepMaxX = Integer.MIN_VALUE;
+            sweepMaxY = Integer.MIN_VALUE;
+            for (int bin = 0; bin < SAH_BIN_COUNT - 1; bin++) {
+                sweepCount += bins.count[bin];
+                if (bins.count[bin] > 0) {
+                    sweepMinX = Math.min(sweepMinX, bins.minX[bin]);
+                    sweepMinY = Math.min(sweepMinY, bins.minY[bin]);
+                    sweepMaxX = Math.max(sweepMaxX, bins.maxX[bin]);
+                    sweepMaxY = Math.max(sweepMaxY, bins.maxY[bin]);
+                }
+                if (sweepCount == 0 || bins.rightCount[bin + 1] == 0) {
+                    continue; // one side would be empty
+                }
+                double leftPerimeter = calcPerimeter(sweepMinX, sweepMinY, sweepMaxX, sweepMaxY);
+                double cost = calcSplitCost(leftPerimeter, sweepCount, bins.rightPerimeter[bin + 1], bins.rightCount[bin + 1], nodePerimeter);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = bin;
+                }
+            }
+        }
+
+        int count = end - start;
+        if (count <= maxLeafSize && (bestAxis == null || SAH_INTERSECTION_COST * count <= bestCost)) {
+            return end;
+        }
+        if (bestAxis == null) {
+            return -1;
+        }
+        if (bestAxis == Axis.X) {
+            return partitionByBin(state, start, end, state.centerX, centerMinX, centerMaxX - centerMinX, SAH_BIN_COUNT, bestBin, parallel);
+        }
+        return partitionByBin(state, start, end, state.centerY, centerMinY, centerMaxY - centerMinY, SAH_BIN_COUNT, bestBin, parallel);
+    }
+
+    /**
+     * Stable partition of order[start, end): shapes whose center falls in a bin up to splitBin keep their
+     * relative order on the left, the rest are staged in scratch and copied in after them.
+     *
+     * @return the index of the first shape on the right side
+     */
+    private int partitionByBin(BuildState state, int start, int end, double[] centers, double centerMin, double extent, int binCount, int splitBin, boolean parallel) {
+        if (parallel && end - start > PARALLEL_PARTITION_CHUNK) {
+            return partitionByBinParallel(state, start, end, centers, centerMin, extent, binCount, splitBin);
+        }
+        int[] order = state.order;
+        int left = start;
+        int right = start;
+        for (int i = start; i < end; i++) {
+            int index = order[i];
+            if (calcBin(centers[index], centerMin, extent, binCount) <= splitBin) {
+                order[left++] = index;
+            } else {
+                state.scratch[right++] = index;
+            }
+        }
+        System.arraycopy(state.scratch, start, order, left, right - start);
+        return left;
+    }
+
+    /**
+     * Same result as the sequential partitionByBin(), computed in chunks: each chunk counts its left side,
+     * a prefix sum gives every chunk its output offsets, then all chunks scatter through scratch at once.
+     */
+    private int partitionByBinParallel(BuildState state, int start, int end, double[] centers, double centerMin, double extent, int binCount, int splitBin) {
+        int[] order = state.order;
+        int[] scratch = state.scratch;
+        int chunkCount = (end - start + PARALLEL_PARTITION_CHUNK - 1) / PARALLEL_PARTITION_CHUNK;
+        int[] leftCounts = new int[chunkCount];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int chunkEnd = Math.min(end, start + (chunk + 1) * PARALLEL_PARTITION_CHUNK);
+            int count = 0;
+            for (int i = start + chunk * PARALLEL_PARTITION_CHUNK; i < chunkEnd; i++) {
+                if (calcBin(centers[order[i]], centerMin, extent, binCount) <= splitBin) {
+                    count++;
+                }
+            }
+            leftCounts[chunk] = count;
+        });
+
+        int[] leftOffsets = new int[chunkCount];
+        int[] rightOffsets = new int[chunkCount];
+        int leftTotal = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            leftOffsets[chunk] = start + leftTotal;
+            leftTotal += leftCounts[chunk];
+        }
+        int split = start + leftTotal;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int chunkStart = start + chunk * PARALLEL_PARTITION_CHUNK;
+            rightOffsets[chunk] = split + (chunkStart - start) - (leftOffsets[chunk] - start);
+        }
+
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int chunkEnd = Math.min(end, start + (chunk + 1) * PARALLEL_PARTITION_CHUNK);
+            int left = leftOffsets[chunk];
+            int right = rightOffsets[chunk];
+            for (int i = start + chunk * PARALLEL_PARTITION_CHUNK; i < chunkEnd; i++) {
+                int index = order[i];
+                if (calcBin(centers[index], centerMin, extent, binCount) <= splitBin) {
+                    scratch[left++] = index;
+                } else {
+                    scratch[right++] = index;
+                }
+            }
+        });
+        System.arraycopy(scratch, start, order, start, end - start);
+        return split;
+    }
+
+    private int calcBin(double center, double centerMin, double extent, int binCount) {
+        int bin = (int) ((center - centerMin) / extent * binCount);
+        return Math.min(bin, binCount - 1);
+    }
+
+    // Expected cost of visiting a node split into the given halves, relative to its own perimeter
+    private double calcSplitCost(double leftPerimeter, int leftCount, double rightPerimeter, int rightCount, double nodePerimeter) {
+        if (nodePerimeter <= 0) {
+            return SAH_TRAVERSAL_COST + SAH_INTERSECTION_COST * (leftCount + rightCount);
+        }
+        return SAH_TRAVERSAL_COST + SAH_INTERSECTION_COST * (leftPerimeter * leftCount + rightPerimeter * rightCount) / nodePerimeter;
     }
 
     @Override
     public void buildBVH(List<Shape> shapeList)
     {
+        leafOf.clear();
         if (shapeList == null || shapeList.isEmpty()) {
             this.root = null;
             System.err.println("shape list is null or empty");
             return;
         }
-        this.root = buildBVHRecursive(new java.util.ArrayList<>(shapeList), Axis.X);
+        if (buildPool == null || shapeList.size() < parallelCutoff) {
+            BuildState state = new BuildState(shapeList, false);
+            this.root = buildBVHRecursive(state, new SplitBins(), 0, state.shapes.length, Axis.X);
+        } else {
+            // the state is loaded inside the pool so its parallel stream runs on the pool's threads
+            this.root = buildPool.invoke(ForkJoinTask.adapt(() -> {
+                BuildState state = new BuildState(shapeList, true);
+                return new BuildTask(state, 0, state.shapes.length, Axis.X).invoke();
+            }));
+        }
+        // indexed afterwards so parallel builds don't share the map
+        indexLeavesRecursive(root);
     }
 
-    private BVHNode buildBVHRecursive(List<Shape> shapeList, Axis axis) {
-        if (shapeList == null || shapeList.isEmpty()) {
-            return null;
+    /**
+     * Builds a read-only tree over every triangle in a soup, splitting with the current split method and max leaf
+     * size exactly as buildBVH() would. Nodes go straight into the frozen tree's arrays, so no Triangle, BVHNode,
+     * Rectangle or Point objects are made along the way. This hierarchy's own tree is left alone, and the fat
+     * margin isn't applied since a frozen tree is never refit.
+     *
+     * @param soup   the triangles to build over
+     * @return       the frozen tree, which names triangles by their index in the soup
+     */
+    public TriangleSoupBVH buildFrozen(TriangleSoup soup) {
+        int count = soup.size();
+        if (count == 0) {
+            return new TriangleSoupBVH(soup, new int[0], new int[0], new int[0], new int[0], new int[0], 0);
         }
+        BuildState state = new BuildState(soup);
+        // a tree with a leaf per triangle has the most nodes, the arrays are trimmed afterwards
+        int maxNodes = 2 * count - 1;
+        int[] bounds = new int[maxNodes * 4];
+        int[] rightChild = new int[maxNodes];
+        int[] firstShape = new int[maxNodes];
+        int[] shapeCount = new int[maxNodes];
+        int[] next = new int[1]; // next free node index
+        int height = buildFrozenRecursive(state, new SplitBins(), 0, count, Axis.X, bounds, rightChild, firstShape, shapeCount, next);
+        int nodes = next[0];
+        // leaves own ranges of order, so it already lists the triangles in leaf order
+        return new TriangleSoupBVH(soup, Arrays.copyOf(bounds, nodes * 4), Arrays.copyOf(rightChild, nodes),
+                Arrays.copyOf(firstShape, nodes), Arrays.copyOf(shapeCount, nodes), state.order, height);
+    }
 
-        if (shapeList.size() == 1) {
-            return new BVHNode(shapeList.get(0));
+    /**
+     * Mirrors buildBVHRecursive(), writing order[start, end)'s subtree into the arrays in depth-first order
+     *
+     * @return the height of the subtree, 0 for a leaf
+     */
+    private int buildFrozenRecursive(BuildState state, SplitBins bins, int start, int end, Axis axis,
+                                     int[] bounds, int[] rightChild, int[] firstShape, int[] shapeCount, int[] next) {
+        int index = next[0]++;
+        int splitIndex = fitsInLeaf(start, end) ? end : partitionRange(state, bins, start, end, axis, false);
+        if (splitIndex == end) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                int triangle = state.order[i];
+                minX = Math.min(minX, state.minX[triangle]);
+                minY = Math.min(minY, state.minY[triangle]);
+                maxX = Math.max(maxX, state.maxX[triangle]);
+                maxY = Math.max(maxY, state.maxY[triangle]);
+            }
+            bounds[index * 4] = minX;
+            bounds[index * 4 + 1] = minY;
+            bounds[index * 4 + 2] = maxX;
+            bounds[index * 4 + 3] = maxY;
+            rightChild[index] = -1;
+            firstShape[index] = start;
+            shapeCount[index] = end - start;
+            return 0;
+        }
+
+        Axis nextAxis = axis == Axis.X ? Axis.Y : Axis.X;
+        int left = index + 1;
+        int leftHeight = buildFrozenRecursive(state, bins, start, splitIndex, nextAxis, bounds, rightChild, firstShape, shapeCount, next);
+        int right = next[0];
+        int rightHeight = buildFrozenRecursive(state, bins, splitIndex, end, nextAxis, bounds, rightChild, firstShape, shapeCount, next);
+
+        bounds[index * 4] = Math.min(bounds[left * 4], bounds[right * 4]);
+        bounds[index * 4 + 1] = Math.min(bounds[left * 4 + 1], bounds[right * 4 + 1]);
+        bounds[index * 4 + 2] = Math.max(bounds[left * 4 + 2], bounds[right * 4 + 2]);
+        bounds[index * 4 + 3] = Math.max(bounds[left * 4 + 3], bounds[right * 4 + 3]);
+        rightChild[index] = right;
+        return 1 + Math.max(leftHeight, rightHeight);
+    }
+
+    private void indexLeavesRecursive(BVHNode node) {
+        if (node.isLeaf()) {
+            for (Shape shape : node.shapes) {
+                leafOf.put(shape, node);
+            }
+            return;
+        }
+        indexLeavesRecursive(node.leftChild);
+        indexLeavesRecursive(node.rightChild);
+    }
+
+    private BVHNode buildBVHRecursive(BuildState state, SplitBins bins, int start, int end, Axis axis) {
+        if (fitsInLeaf(start, end)) {
+            return buildLeaf(state, start, end);
         }
 
-        int medianIndex = partitionByMedian(shapeList, axis);
+        int splitIndex = partitionRange(state, bins, start, end, axis, false);
+        if (splitIndex == end) {
+            return buildLeaf(state, start, end);
+        }
 
         Axis nextAxis = axis == Axis.X ? Axis.Y : Axis.X; // determine axis to partition by
 
-        List<Shape> leftSubList = new java.util.ArrayList<>(shapeList.subList(0, medianIndex));
-        List<Shape> rightSubList = new java.util.ArrayList<>(shapeList.subList(medianIndex, shapeList.size())); // Corrected size() here
+        BVHNode left = buildBVHRecursive(state, bins, start, splitIndex, nextAxis);
+        BVHNode right = buildBVHRecursive(state, bins, splitIndex, end, nextAxis);
+
+        return new BVHNode(combineBoundingBoxes(left.bounds, right.bounds), left, right);
+    }
 
-        BVHNode left = buildBVHRecursive(leftSubList, nextAxis);
-        BVHNode right = buildBVHRecursive(rightSubList, nextAxis);
+    // Surface area splits decide for themselves whether a small range is worth splitting
+    private boolean fitsInLeaf(int start, int end) {
+        return end - start == 1 || (end - start <= maxLeafSize && splitMethod != SplitMethod.SPLIT_SURFACE_AREA);
+    }
 
-        // add bounds to class
-        Rectangle bounds;
-        if (left == null) {
-            bounds = right.bounds;
-        } else if (right == null) {
-            bounds = left.bounds;
-        } else {
-            bounds = combineBoundingBoxes(left.bounds, right.bounds);
+    private BVHNode buildLeaf(BuildState state, int start, int end) {
+        Shape[] shapes = new Shape[end - start];
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = start; i < end; i++) {
+            int index = state.order[i];
+            shapes[i - start] = state.shapes[index];
+            minX = Math.min(minX, state.minX[index]);
+            minY = Math.min(minY, state.minY[index]);
+            maxX = Math.max(maxX, state.maxX[index]);
+            maxY = Math.max(maxY, state.maxY[index]);
+        }
+        return new BVHNode(shapes, new Rectangle(new Point(minX - fatMargin, minY - fatMargin), new Point(maxX + fatMargin, maxY + fatMargin)));
+    }
+
+    /**
+     * Partitions order[start, end) with the current split method
+     *
+     * @return the index of the first shape on the right side, or end if the range should stay one leaf
+     */
+    private int partitionRange(BuildState state, SplitBins bins, int start, int end, Axis axis, boolean parallel) {
+        int splitIndex = -1;
+        if (splitMethod == SplitMethod.SPLIT_SURFACE_AREA) {
+            splitIndex = partitionBySurfaceArea(state, bins, start, end, parallel);
+        } else if (splitMethod == SplitMethod.SPLIT_MIDRANGE) {
+            splitIndex = partitionByMidrange(state, start, end, parallel);
+        }
+        if (splitIndex <= start) {
+            // median is also the fallback when every center is in the same place
+            splitIndex = partitionByMedian(state, start, end, axis);
+        }
+        return splitIndex;
+    }
+
+    /**
+     * Builds the subtree for order[start, end), forking the left half while this thread builds the right.
+     * Ranges below the parallel cutoff fall back to buildBVHRecursive().
+     */
+    private class BuildTask extends RecursiveTask<BVHNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final BuildState state;
+        private final int start;
+        private final int end;
+        private final Axis axis;
+
+        BuildTask(BuildState state, int start, int end, Axis axis) {
+            this.state = state;
+            this.start = start;
+            this.end = end;
+            this.axis = axis;
+        }
+
+        @Override
+        protected BVHNode compute() {
+            if (end - start < parallelCutoff || fitsInLeaf(start, end)) {
+                return buildBVHRecursive(state, new SplitBins(), start, end, axis);
+            }
+
+            int splitIndex = partitionRange(state, new SplitBins(), start, end, axis, true);
+            if (splitIndex == end) {
+                return buildLeaf(state, start, end);
+            }
+
+            Axis nextAxis = axis == Axis.X ? Axis.Y : Axis.X;
+
+            BuildTask leftTask = new BuildTask(state, start, splitIndex, nextAxis);
+            leftTask.fork();
+            BVHNode right = new BuildTask(state, splitIndex, end, nextAxis).compute();
+            BVHNode left = leftTask.join();
+
+            return new BVHNode(combineBoundingBoxes(left.bounds, right.bounds), left, right);
         }
-        return new BVHNode(bounds, left, right);
     }
 
     @Override
@@ -114,37 +737,219 @@ public class BoundedVolumeHierarchy implements BVH
     {
         if (root == null) {
             root = new BVHNode(shape);
+            leafOf.put(shape, root);
+            return;
+        }
+        if (balanceMethod == BalanceMethod.BALANCE_SURFACE_AREA) {
+            insertBySurfaceArea(shape);
             return;
         }
         root = insertRecursive(root, shape);
+        root.parent = null;
+    }
+
+    /**
+     * Puts the shape next to whichever node adds the least perimeter to the tree as a whole, counting the growth
+     * of every ancestor on the way, then refits and rotates upward from there.
+     */
+    private void insertBySurfaceArea(Shape shape) {
+        Rectangle shapeBounds = calcLeafBounds(new Shape[] {shape});
+        BVHNode sibling = findBestSibling(shapeBounds);
+        BVHNode start;
+        if (sibling.isLeaf() && sibling.shapes.length < maxLeafSize) {
+            sibling.shapes = Arrays.copyOf(sibling.shapes, sibling.shapes.length + 1);
+            sibling.shapes[sibling.shapes.length - 1] = shape;
+            sibling.bounds = combineBoundingBoxes(sibling.bounds, shapeBounds);
+            leafOf.put(shape, sibling);
+            start = sibling.parent;
+        } else {
+            BVHNode oldParent = sibling.parent;
+            BVHNode leaf = new BVHNode(new Shape[] {shape}, shapeBounds);
+            leafOf.put(shape, leaf);
+            replaceChild(oldParent, sibling, new BVHNode(combineBoundingBoxes(sibling.bounds, shapeBounds), sibling, leaf));
+            start = oldParent;
+        }
+        refitAndBalanceUpward(start);
+    }
+
+    /**
+     * Branch and bound over the tree for the node whose pairing with the new bounds costs least. Pairing with a
+     * node costs the perimeter of their union plus how much every ancestor grows, and no descendant can cost less
+     * than the new bounds' own perimeter plus what its ancestors already grow, so subtrees are skipped once that
+     * bound reaches the best cost found. Equal bounds are visited in the order they were queued, and only a
+     * strictly cheaper node replaces the best, so the same inserts always build the same tree.
+     */
+    private BVHNode findBestSibling(Rectangle bounds) {
+        double ownPerimeter = calcRectPerimeter(bounds);
+        PriorityQueue<SiblingCandidate> queue = new PriorityQueue<>();
+        int queued = 0;
+        queue.add(new SiblingCandidate(root, 0, ownPerimeter, queued++));
+
+        BVHNode best = root;
+        double bestCost = Double.POSITIVE_INFINITY;
+        while (!queue.isEmpty()) {
+            SiblingCandidate candidate = queue.poll();
+            if (candidate.lowerBound >= bestCost) {
+                break;
+            }
+            BVHNode node = candidate.node;
+            double unionPerimeter = calcUnionPerimeter(bounds, node.bounds);
+            double cost = unionPerimeter + candidate.inheritedCost;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = node;
+            }
+            if (node.isLeaf()) {
+                continue;
+            }
+            // going below this node means it grows to cover the new bounds too
+            double childInheritedCost = candidate.inheritedCost + unionPerimeter - calcRectPerimeter(node.bounds);
+            double childLowerBound = ownPerimeter + childInheritedCost;
+            if (childLowerBound < bestCost) {
+                queue.add(new SiblingCandidate(node.leftChild, childInheritedCost, childLowerBound, queued++));
+                queue.add(new SiblingCandidate(node.rightChild, childInheritedCost, childLowerBound, queued++));
+            }
+        }
+        return best;
+    }
+
+    private static class SiblingCandidate implements Comparable<SiblingCandidate> {
+        final BVHNode node;
+        final double inheritedCost; // how much the node's ancestors grow if the new bounds go under it
+        final double lowerBound;    // the least pairing with the node or anything below it can cost
+        final int order;
+
+        SiblingCandidate(BVHNode node, double inheritedCost, double lowerBound, int order) {
+            this.node = node;
+            this.inheritedCost = inheritedCost;
+            this.lowerBound = lowerBound;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(SiblingCandidate other) {
+            int byBound = Double.compare(lowerBound, other.lowerBound);
+            return byBound != 0 ? byBound : Integer.compare(order, other.order);
+        }
     }
 
     private BVHNode insertRecursive(BVHNode node, Shape shape) {
         if (node == null) {
-            return new BVHNode(shape); // Create and return new leaf node
+            BVHNode leaf = new BVHNode(shape); // Create and return new leaf node
+            leafOf.put(shape, leaf);
+            return leaf;
         }
         if (node.isLeaf()) {
-            node.leftChild = new BVHNode(node.shape);
-            node.shape = null;
-            node.rightChild = new BVHNode(shape);
+            if (node.shapes.length < maxLeafSize) {
+                node.shapes = Arrays.copyOf(node.shapes, node.shapes.length + 1);
+                node.shapes[node.shapes.length - 1] = shape;
+                node.bounds = combineBoundingBoxes(node.bounds, calcLeafBounds(new Shape[] {shape}));
+                leafOf.put(shape, node);
+                return node;
+            }
+            // a full leaf keeps its shapes on the left and the new shape starts a leaf on the right
+            BVHNode left = new BVHNode(node.shapes, node.bounds);
+            for (Shape moved : node.shapes) {
+                leafOf.put(moved, left);
+            }
+            BVHNode right = new BVHNode(shape);
+            leafOf.put(shape, right);
+            node.shapes = null;
+            node.setLeftChild(left);
+            node.setRightChild(right);
             node.bounds = combineBoundingBoxes(node.leftChild.bounds, node.rightChild.bounds);
             node.updateHeight();
             return node;
         }
 
         if (preferLeft(node, shape)) {
-            node.leftChild = insertRecursive(node.leftChild, shape);
+            node.setLeftChild(insertRecursive(node.leftChild, shape));
         } else {
-            node.rightChild = insertRecursive(node.rightChild, shape);
+            node.setRightChild(insertRecursive(node.rightChild, shape));
         }
 
         node.bounds = combineBoundingBoxes(node.leftChild.bounds, node.rightChild.bounds);
         node.updateHeight();
 
-        BVHNode balancedNode = rebalance(node);
+        BVHNode balancedNode = balance(node);
         return balancedNode;
     }
 
+    // Rebalances node with the current balance method, returning whatever now roots its subtree
+    private BVHNode balance(BVHNode node) {
+        if (balanceMethod == BalanceMethod.BALANCE_SURFACE_AREA) {
+            rotateForSurfaceArea(node);
+            return node;
+        }
+        return rebalance(node);
+    }
+
+    /**
+     * Tries swapping each child of node with each grandchild under the other child, and applies the swap that
+     * shrinks the perimeter of the child that gets the new grandchild the most. node keeps the same shapes,
+     * so its own bounds don't change.
+     */
+    private void rotateForSurfaceArea(BVHNode node) {
+        BVHNode left = node.leftChild;
+        BVHNode right = node.rightChild;
+        double bestGain = 0;
+        BVHNode bestChild = null;
+        BVHNode bestGrandchild = null;
+
+        if (!right.isLeaf()) {
+            double rightPerimeter = calcRectPerimeter(right.bounds);
+            // left trades places with one of right's children, right ends up around left and the other one
+            double gain = rightPerimeter - calcUnionPerimeter(left.bounds, right.rightChild.bounds);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestChild = left;
+                bestGrandchild = right.leftChild;
+            }
+            gain = rightPerimeter - calcUnionPerimeter(left.bounds, right.leftChild.bounds);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestChild = left;
+                bestGrandchild = right.rightChild;
+            }
+        }
+        if (!left.isLeaf()) {
+            double leftPerimeter = calcRectPerimeter(left.bounds);
+            double gain = leftPerimeter - calcUnionPerimeter(right.bounds, left.rightChild.bounds);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestChild = right;
+                bestGrandchild = left.leftChild;
+            }
+            gain = leftPerimeter - calcUnionPerimeter(right.bounds, left.leftChild.bounds);
+            if (gain > bestGain) {
+                bestChild = right;
+                bestGrandchild = left.rightChild;
+            }
+        }
+
+        if (bestChild != null) {
+            swapWithGrandchild(node, bestChild, bestGrandchild);
+        }
+    }
+
+    // Swaps a child of node with a child of node's other child, then refits the node between them
+    private void swapWithGrandchild(BVHNode node, BVHNode child, BVHNode grandchild) {
+        BVHNode other = node.leftChild == child ? node.rightChild : node.leftChild;
+        if (other.leftChild == grandchild) {
+            other.setLeftChild(child);
+        } else {
+            other.setRightChild(child);
+        }
+        if (node.leftChild == child) {
+            node.setLeftChild(grandchild);
+        } else {
+            node.setRightChild(grandchild);
+        }
+        other.bounds = combineBoundingBoxes(other.leftChild.bounds, other.rightChild.bounds);
+        other.updateHeight();
+        node.updateHeight();
+    }
+
     private BVHNode rebalance(BVHNode node) {
         int balance = getBalance(node);
 
@@ -155,7 +960,7 @@ public class BoundedVolumeHierarchy implements BVH
                 return rotateRight(node);
             } else {
                 // Left-Right Case: Left Rotation on child, then Right Rotation on node
-                node.leftChild = rotateLeft(node.leftChild);
+                node.setLeftChild(rotateLeft(node.leftChild));
                 return rotateRight(node);
             }
         }
@@ -167,7 +972,7 @@ public class BoundedVolumeHierarchy implements BVH
                 return rotateLeft(node);
             } else {
                 // Right-Left Case: Right Rotation on child, then Left Rotation on node
-                node.rightChild = rotateRight(node.rightChild);
+                node.setRightChild(rotateRight(node.rightChild));
                 return rotateLeft(node);
             }
         }
@@ -180,8 +985,8 @@ public class BoundedVolumeHierarchy implements BVH
         BVHNode T2 = x.rightChild; // T2 is the subtree that moves
 
         // Perform rotation
-        x.rightChild = y;
-        y.leftChild = T2;
+        x.setRightChild(y);
+        y.setLeftChild(T2);
 
         // Update heights
         y.updateHeight(); // y's children changed
@@ -199,8 +1004,8 @@ public class BoundedVolumeHierarchy implements BVH
         BVHNode T2 = y.leftChild; // T2 is the subtree that moves
 
         // Perform rotation
-        y.leftChild = x;
-        x.rightChild = T2;
+        y.setLeftChild(x);
+        x.setRightChild(T2);
 
         // Update heights
         x.updateHeight(); // x's children changed
@@ -239,7 +1044,7 @@ public class BoundedVolumeHierarchy implements BVH
         } else if (right.height < left.height) {
             return false;
         } else {
-            return Math.random() < 0.5;
+            return true; // left on a full tie, so the same inserts always build the same tree
         }
     }
 
@@ -250,7 +1055,80 @@ public class BoundedVolumeHierarchy implements BVH
             return;
         }
         shapeRemovedSuccessfully = false; // Reset for each call
+        BVHNode leaf = leafOf.get(shape);
+        if (leaf != null) {
+            removeFromIndexedLeaf(leaf, shape);
+            return;
+        }
+        // shapes that are only equal to one in the tree have to be searched for
         root = removeRecursive(root, shape);
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    /**
+     * Removes a shape instance from the leaf the index says holds it, then refits and rebalances the leaf's
+     * ancestors on the way up, so only one root-to-leaf path is touched.
+     */
+    private void removeFromIndexedLeaf(BVHNode leaf, Shape shape) {
+        leafOf.remove(shape);
+        BVHNode start;
+        if (leaf.shapes.length > 1) {
+            leaf.shapes = withoutShape(leaf.shapes, indexOfInstance(leaf.shapes, shape));
+            leaf.bounds = calcLeafBounds(leaf.shapes);
+            start = leaf.parent;
+        } else {
+            // the leaf's sibling takes its parent's place
+            BVHNode parent = leaf.parent;
+            if (parent == null) {
+                root = null;
+                return;
+            }
+            BVHNode sibling = parent.leftChild == leaf ? parent.rightChild : parent.leftChild;
+            replaceChild(parent.parent, parent, sibling);
+            start = sibling.parent;
+        }
+        refitAndBalanceUpward(start);
+    }
+
+    // Refits and rebalances start and each of its ancestors after the shapes below them changed
+    private void refitAndBalanceUpward(BVHNode start) {
+        for (BVHNode node = start; node != null; ) {
+            BVHNode parent = node.parent;
+            node.bounds = combineBoundingBoxes(node.leftChild.bounds, node.rightChild.bounds);
+            node.updateHeight();
+            replaceChild(parent, node, balance(node));
+            node = parent;
+        }
+    }
+
+    // Puts replacement where child was under parent, or at the root if parent is null
+    private void replaceChild(BVHNode parent, BVHNode child, BVHNode replacement) {
+        if (parent == null) {
+            root = replacement;
+            replacement.parent = null;
+        } else if (parent.leftChild == child) {
+            parent.setLeftChild(replacement);
+        } else {
+            parent.setRightChild(replacement);
+        }
+    }
+
+    private int indexOfInstance(Shape[] shapes, Shape shape) {
+        for (int i = 0; i < shapes.length; i++) {
+            if (shapes[i] == shape) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Leaf index is out of date for " + shape);
+    }
+
+    private Shape[] withoutShape(Shape[] shapes, int index) {
+        Shape[] remaining = new Shape[shapes.length - 1];
+        System.arraycopy(shapes, 0, remaining, 0, index);
+        System.arraycopy(shapes, index + 1, remaining, index, remaining.length - index);
+        return remaining;
     }
 
     private BVHNode removeRecursive(BVHNode node, Shape shape) {
@@ -258,10 +1136,7 @@ public class BoundedVolumeHierarchy implements BVH
             return null;
         }
         if (node.isLeaf()) {
-            if (node.shape.equals(shape)) {
-                return null;
-            }
-            return node;
+            return removeFromLeaf(node, shape);
         }
 
         Rectangle targetBounds = calcBoundingBox(shape);
@@ -274,6 +1149,12 @@ public class BoundedVolumeHierarchy implements BVH
         if (rightContains) {
             node.rightChild =  removeRecursive(node.rightChild, shape);
         }
+        if (node.leftChild != null) {
+            node.leftChild.parent = node;
+        }
+        if (node.rightChild != null) {
+            node.rightChild.parent = node;
+        }
 
         if (node.leftChild == null && node.rightChild == null) {
             return null;
@@ -290,7 +1171,24 @@ public class BoundedVolumeHierarchy implements BVH
         node.bounds = combineBoundingBoxes(node.leftChild.bounds, node.rightChild.bounds);
         node.updateHeight();
 
-        return rebalance(node);
+        return balance(node);
+    }
+
+    private BVHNode removeFromLeaf(BVHNode node, Shape shape) {
+        for (int i = 0; i < node.shapes.length; i++) {
+            if (node.shapes[i].equals(shape)) {
+                if (leafOf.get(node.shapes[i]) == node) {
+                    leafOf.remove(node.shapes[i]);
+                }
+                if (node.shapes.length == 1) {
+                    return null;
+                }
+                node.shapes = withoutShape(node.shapes, i);
+                node.bounds = calcLeafBounds(node.shapes);
+                return node;
+            }
+        }
+        return node;
     }
 
     // Checks if rect1 is completely contained within rect2
@@ -314,97 +1212,454 @@ public class BoundedVolumeHierarchy implements BVH
 
     @Override
     public Set<Shape> findCollision(Point2D.Double point)
+    {
+        Set<Shape> result = new java.util.HashSet<>();
+        findCollision(point, result::add);
+        return result;
+    }
+
+    @Override
+    public void findCollision(Point2D.Double point, Consumer<Shape> consumer)
     {
         if (root == null) {
-            return new java.util.HashSet<>();
+            return;
+        }
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            pushIfContains(stack, root, point);
+            while (!stack.isEmpty()) {
+                BVHNode node = stack.pop();
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        if (shape.containsPoint(point)) {
+                            consumer.accept(shape);
+                        }
+                    }
+                    continue;
+                }
+                pushIfContains(stack, node.rightChild, point);
+                pushIfContains(stack, node.leftChild, point);
+            }
+        } finally {
+            stack.release();
         }
-        return findCollisionRecursive(root, point);
     }
 
-    private Set<Shape> findCollisionRecursive(BVHNode node, Point2D.Double point) {
-        if (node == null) {
-            return new java.util.HashSet<>();
+    @Override
+    public boolean hasCollision(Point2D.Double point)
+    {
+        if (root == null) {
+            return false;
         }
-        if (node.isLeaf()) {
-            if (node.shape.containsPoint(point)) {
-                Set<Shape> result = new java.util.HashSet<>();
-                result.add(node.shape);
-                return result;
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            pushIfContains(stack, root, point);
+            while (!stack.isEmpty()) {
+                BVHNode node = stack.pop();
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        if (shape.containsPoint(point)) {
+                            return true;
+                        }
+                    }
+                    continue;
+                }
+                // left is on top, so the right side is only searched if the left has nothing
+                pushIfContains(stack, node.rightChild, point);
+                pushIfContains(stack, node.leftChild, point);
+            }
+            return false;
+        } finally {
+            stack.release();
+        }
+    }
+
+    @Override
+    public Set<Shape> findOverlaps(Rectangle2D.Double box)
+    {
+        Set<Shape> result = new java.util.HashSet<>();
+        findOverlaps(box, result::add);
+        return result;
+    }
+
+    @Override
+    public void findOverlaps(Rectangle2D.Double box, Consumer<Shape> consumer)
+    {
+        findOverlaps(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), consumer);
+    }
+
+    private void findOverlaps(double minX, double minY, double maxX, double maxY, Consumer<Shape> consumer) {
+        if (root == null) {
+            return;
+        }
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            pushIfIntersects(stack, root, minX, minY, maxX, maxY);
+            while (!stack.isEmpty()) {
+                BVHNode node = stack.pop();
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        if (shape.intersectsBox(minX, minY, maxX, maxY)) {
+                            consumer.accept(shape);
+                        }
+                    }
+                    continue;
+                }
+                pushIfIntersects(stack, node.rightChild, minX, minY, maxX, maxY);
+                pushIfIntersects(stack, node.leftChild, minX, minY, maxX, maxY);
             }
-            return new java.util.HashSet<>();
+        } finally {
+            stack.release();
         }
+    }
 
-        if (!node.bounds.containsPoint(point)) {
-            return new java.util.HashSet<>();
+    @Override
+    public boolean hasOverlap(Rectangle2D.Double box)
+    {
+        if (root == null) {
+            return false;
+        }
+        double minX = box.getMinX();
+        double minY = box.getMinY();
+        double maxX = box.getMaxX();
+        double maxY = box.getMaxY();
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            pushIfIntersects(stack, root, minX, minY, maxX, maxY);
+            while (!stack.isEmpty()) {
+                BVHNode node = stack.pop();
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        if (shape.intersectsBox(minX, minY, maxX, maxY)) {
+                            return true;
+                        }
+                    }
+                    continue;
+                }
+                pushIfIntersects(stack, node.rightChild, minX, minY, maxX, maxY);
+                pushIfIntersects(stack, node.leftChild, minX, minY, maxX, maxY);
+            }
+            return false;
+        } finally {
+            stack.release();
         }
+    }
 
-        Set<Shape> leftCollisions = findCollisionRecursive(node.leftChild, point);
-        Set<Shape> rightCollisions = findCollisionRecursive(node.rightChild, point);
+    // Nodes are culled before they're pushed so rejected children never touch the stack. Leaves skip the bounds
+    // check since the shape test is exact.
+    private static void pushIfContains(TraversalStack stack, BVHNode node, Point2D.Double point) {
+        if (node.isLeaf() || node.bounds.containsPoint(point)) {
+            stack.push(node);
+        }
+    }
 
-        leftCollisions.addAll(rightCollisions);
-        return leftCollisions;
+    private static void pushIfIntersects(TraversalStack stack, BVHNode node, double minX, double minY, double maxX, double maxY) {
+        if (node.bounds.intersectsBox(minX, minY, maxX, maxY)) {
+            stack.push(node);
+        }
     }
 
-    private static class IntersectionInfo {
-        Shape hitShape;
-        double hitDistance;
+    @Override
+    public boolean sweepBox(Rectangle2D.Double box, double dx, double dy, SweepHit hit)
+    {
+        hit.reset();
+        if (root == null) {
+            return false;
+        }
+        double inverseDX = 1 / dx;
+        double inverseDY = 1 / dy;
+
+        double rootEntry = findSweepEntry(root, box, inverseDX, inverseDY);
+        if (rootEntry > 1 + SWEEP_SLACK) {
+            return false;
+        }
+
+        // nodes are pushed with the time the box reaches them, nearer child on top
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            stack.push(root, rootEntry);
+            while (!stack.isEmpty()) {
+                double entry = stack.peekEntry();
+                BVHNode node = stack.pop();
+                if (entry > hit.time + SWEEP_SLACK) {
+                    continue; // reached after a contact found since it was pushed
+                }
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        double time = shape.sweepBox(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), dx, dy);
+                        if (time < hit.time) {
+                            hit.time = time;
+                            hit.shape = shape;
+                        }
+                    }
+                    continue;
+                }
 
-        public IntersectionInfo(Shape hitShape, double hitDistance) {
-            this.hitShape = hitShape;
-            this.hitDistance = hitDistance;
+                BVHNode near = node.leftChild;
+                BVHNode far = node.rightChild;
+                double nearEntry = findSweepEntry(near, box, inverseDX, inverseDY);
+                double farEntry = findSweepEntry(far, box, inverseDX, inverseDY);
+                if (farEntry < nearEntry) {
+                    near = node.rightChild;
+                    far = node.leftChild;
+                    double temp = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = temp;
+                }
+                if (farEntry <= 1 + SWEEP_SLACK && farEntry <= hit.time + SWEEP_SLACK) {
+                    stack.push(far, farEntry);
+                }
+                if (nearEntry <= 1 + SWEEP_SLACK && nearEntry <= hit.time + SWEEP_SLACK) {
+                    stack.push(near, nearEntry);
+                }
+            }
+        } finally {
+            stack.release();
         }
+        return hit.shape != null;
+    }
+
+    // Fraction of the motion at which the box first reaches the node's bounds, infinite if it never does. The box's
+    // max side reaches the bounds' min side and its min side their max side, so the box's offset is a ray from the
+    // origin into the bounds grown by the box's own sides, the same distances the shapes' contact times come from.
+    private double findSweepEntry(BVHNode node, Rectangle2D.Double box, double inverseDX, double inverseDY) {
+        return Rectangle.findRayEntry(node.bounds.minPos.x - box.getMaxX(), node.bounds.minPos.y - box.getMaxY(),
+                node.bounds.maxPos.x - box.getMinX(), node.bounds.maxPos.y - box.getMinY(),
+                0, 0, inverseDX, inverseDY);
     }
 
     @Override
     public Shape intersectRay(Point2D.Double origin, Vector2D direction)
     {
+        RayHit hit = new RayHit();
+        return intersectRay(origin, direction, hit) ? hit.shape : null;
+    }
+
+    @Override
+    public boolean intersectRay(Point2D.Double origin, Vector2D direction, RayHit hit)
+    {
+        // The ray is tested from the same whole-number origin the shapes are tested from
+        return castRay(origin.getX(), origin.getY(), (int) origin.getX(), (int) origin.getY(), direction.getX(), direction.getY(), Double.POSITIVE_INFINITY, hit);
+    }
+
+    @Override
+    public boolean intersectRay(double originX, double originY, double directionX, double directionY, RayHit hit)
+    {
+        return castRay(originX, originY, originX, originY, directionX, directionY, Double.POSITIVE_INFINITY, hit);
+    }
+
+    // Boxes and shapes are tested from (testX, testY), hit distances are measured from (originX, originY). Hits
+    // farther than maxDistance are ignored.
+    private boolean castRay(double originX, double originY, double testX, double testY, double directionX, double directionY, double maxDistance, RayHit hit) {
+        hit.reset();
         if (root == null) {
-            return null; // No BVH, no intersection
+            return false; // No BVH, no intersection
         }
-        // Start the recursive search. Initial closest distance is infinity.
-        IntersectionInfo closestHit = intersectRayRecursive(root, origin, direction, Double.POSITIVE_INFINITY);
+        double inverseDirX = 1 / directionX;
+        double inverseDirY = 1 / directionY;
+        double directionLength = Math.hypot(directionX, directionY);
+        // box distances from the test origin can be short by this much
+        double originOffset = Point2D.distance(originX, originY, testX, testY);
+
+        double rootEntry = findEntryDistance(root, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+        if (rootEntry >= maxDistance) {
+            return false;
+        }
+        RayHit candidate = RayHit.candidate();
+        // the limit stands in for a hit already found there, so the traversal culls everything past it
+        hit.distance = maxDistance;
+
+        // nodes are pushed with the distance at which the ray enters them, nearer child on top
+        TraversalStack stack = TraversalStack.acquire();
+        try {
+            stack.push(root, rootEntry);
+            while (!stack.isEmpty()) {
+                double entry = stack.peekEntry();
+                BVHNode node = stack.pop();
+                if (entry >= hit.distance) {
+                    continue; // starts behind a hit found since it was pushed
+                }
+                if (node.isLeaf()) {
+                    for (Shape shape : node.shapes) {
+                        if (shape.findIntersection(testX, testY, directionX, directionY, candidate)) {
+                            if (originOffset != 0) {
+                                candidate.distance = Point2D.distance(originX, originY, candidate.x, candidate.y);
+                            }
+                            if (candidate.distance < hit.distance) {
+                                hit.set(candidate);
+                            }
+                        }
+                    }
+                    continue;
+                }
 
-        return (closestHit != null) ? closestHit.hitShape : null;
+                BVHNode near = node.leftChild;
+                BVHNode far = node.rightChild;
+                double nearEntry = findEntryDistance(near, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                double farEntry = findEntryDistance(far, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                if (farEntry < nearEntry) {
+                    near = node.rightChild;
+                    far = node.leftChild;
+                    double temp = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = temp;
+                }
+                if (farEntry < hit.distance) {
+                    stack.push(far, farEntry);
+                }
+                if (nearEntry < hit.distance) {
+                    stack.push(near, nearEntry);
+                }
+            }
+        } finally {
+            stack.release();
+        }
+        if (hit.shape == null) {
+            hit.distance = Double.POSITIVE_INFINITY;
+        }
+        return hit.shape != null;
     }
 
-    private IntersectionInfo intersectRayRecursive(BVHNode node, Point2D.Double origin, Vector2D direction, double closestDistance) {
-        if (node == null) {
-            return null;
+    @Override
+    public void intersectRays(RayBatch batch, boolean parallel)
+    {
+        int size = batch.size();
+        if (!parallel || size <= RAY_BATCH_CHUNK) {
+            intersectRayRange(batch, 0, size);
+            return;
         }
+        // chunks keep each task long enough to be worth scheduling
+        int chunkCount = (size + RAY_BATCH_CHUNK - 1) / RAY_BATCH_CHUNK;
+        IntStream.range(0, chunkCount).parallel().forEach(chunk ->
+                intersectRayRange(batch, chunk * RAY_BATCH_CHUNK, Math.min(size, (chunk + 1) * RAY_BATCH_CHUNK)));
+    }
 
-        Point originInt = new Point((int) origin.getX(), (int) origin.getY());
-
-        if (!node.bounds.doesRayIntersect(originInt, direction)) {
-            return null;
+    private void intersectRayRange(RayBatch batch, int from, int to) {
+        RayHit hit = new RayHit();
+        for (int i = from; i < to; i++) {
+            castRay(batch.originX[i], batch.originY[i], batch.originX[i], batch.originY[i], batch.directionX[i], batch.directionY[i], batch.maxDistance[i], hit);
+            batch.setHit(i, hit);
         }
+    }
 
-        if (node.isLeaf()) {
-            Point2D.Double intersectionPoint = node.shape.findIntersection(originInt, direction);
-            if (intersectionPoint != null) {
-                double hitDistance = BVH.distanceBetweenPoints(origin, intersectionPoint);
-                if (hitDistance < closestDistance) { // This check is correct for leaf nodes
-                    return new IntersectionInfo(node.shape, hitDistance);
-                }
+    @Override
+    public void intersectRayFan(RayBatch batch)
+    {
+        int size = batch.size();
+        if (batch.angleOrder == null || batch.angleOrder.length != size) {
+            throw new IllegalArgumentException("RayBatch must be indexed by angle before it's cast as a fan.");
+        }
+        RayHit miss = new RayHit();
+        for (int i = 0; i < size; i++) {
+            if (batch.originX[i] != batch.originX[0] || batch.originY[i] != batch.originY[0]) {
+                throw new IllegalArgumentException("Every ray in a fan must start at the same point.");
             }
-            return null;
+            batch.setHit(i, miss);
+            // until the shapes are tested, each ray's best distance is its limit
+            batch.sortedBest[i] = batch.maxDistance[batch.angleOrder[i]];
+        }
+        if (root != null && size > 0) {
+            castFan(batch, batch.originX[0], batch.originY[0]);
+        }
+    }
+
+    // Tests each shape within the rays' reach against the rays whose angle falls within its bounds. Nearer shapes go
+    // first, so a ray that already hit something in front of a shape's bounds skips it with one comparison.
+    private void castFan(RayBatch batch, double originX, double originY) {
+        List<Shape> reachable = new ArrayList<>();
+        findOverlaps(Math.max(originX + batch.reachMinX, root.bounds.minPos.x), Math.max(originY + batch.reachMinY, root.bounds.minPos.y),
+                Math.min(originX + batch.reachMaxX, root.bounds.maxPos.x), Math.min(originY + batch.reachMaxY, root.bounds.maxPos.y), reachable::add);
+
+        int count = reachable.size();
+        double[] nearest = new double[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            Shape shape = reachable.get(i);
+            Point min = shape.getMinSurroundingPoint();
+            Point max = shape.getMaxSurroundingPoint();
+            double outsideX = Math.max(0, Math.max(min.x - originX, originX - max.x));
+            double outsideY = Math.max(0, Math.max(min.y - originY, originY - max.y));
+            nearest[i] = Math.hypot(outsideX, outsideY);
+            order[i] = i;
         }
+        Arrays.sort(order, (first, second) -> Double.compare(nearest[first], nearest[second]));
+
+        RayHit candidate = RayHit.candidate();
+        for (int i : order) {
+            Shape shape = reachable.get(i);
+            // hit distances are worked out differently from the bounds' distance, so they can round a little under it
+            double near = nearest[i] - Shape.EPSILON;
+            if (nearest[i] == 0) {
+                castFanRange(batch, 0, batch.size(), shape, near, originX, originY, candidate); // the origin is inside the bounds
+                continue;
+            }
 
-        IntersectionInfo currentClosestHit = null;
+            // the bounds don't contain the origin, so they span less than half a turn and their corners bound it
+            Point min = shape.getMinSurroundingPoint();
+            Point max = shape.getMaxSurroundingPoint();
+            double middle = Math.atan2((min.y + max.y) / 2.0 - originY, (min.x + max.x) / 2.0 - originX);
+            double low = 0;
+            double high = 0;
+            for (int corner = 0; corner < 4; corner++) {
+                double x = (corner & 1) == 0 ? min.x : max.x;
+                double y = (corner & 2) == 0 ? min.y : max.y;
+                double offset = Math.IEEEremainder(Math.atan2(y - originY, x - originX) - middle, 2 * Math.PI);
+                low = Math.min(low, offset);
+                high = Math.max(high, offset);
+            }
+            low += middle - FAN_ANGLE_SLACK;
+            high += middle + FAN_ANGLE_SLACK;
 
-        IntersectionInfo leftHit = intersectRayRecursive(node.leftChild, origin, direction, closestDistance);
-        if (leftHit != null) {
-            currentClosestHit = leftHit;
-            closestDistance = Math.min(closestDistance, leftHit.hitDistance);
+            // angles run from -pi to pi, so a span across pi is cast as two ranges
+            castFanRange(batch, firstAngleAtLeast(batch, low), firstAngleAtLeast(batch, Math.nextUp(high)), shape, near, originX, originY, candidate);
+            if (low < -Math.PI) {
+                castFanRange(batch, firstAngleAtLeast(batch, low + 2 * Math.PI), batch.size(), shape, near, originX, originY, candidate);
+            }
+            if (high > Math.PI) {
+                castFanRange(batch, 0, firstAngleAtLeast(batch, Math.nextUp(high - 2 * Math.PI)), shape, near, originX, originY, candidate);
+            }
         }
+    }
 
-        IntersectionInfo rightHit = intersectRayRecursive(node.rightChild, origin, direction, closestDistance);
-        if (rightHit != null) {
-            if (currentClosestHit == null || rightHit.hitDistance < currentClosestHit.hitDistance) {
-                currentClosestHit = rightHit;
+    // Tests one shape against the rays from one position to another in the batch's angle order
+    private void castFanRange(RayBatch batch, int from, int to, Shape shape, double near, double originX, double originY, RayHit candidate) {
+        double[] best = batch.sortedBest;
+        for (int i = from; i < to; i++) {
+            if (best[i] <= near) {
+                continue;
+            }
+            if (shape.findIntersection(originX, originY, batch.sortedDirectionX[i], batch.sortedDirectionY[i], candidate) && candidate.distance < best[i]) {
+                best[i] = candidate.distance;
+                batch.setHit(batch.angleOrder[i], candidate);
             }
         }
+    }
 
-        return currentClosestHit;
+    // Position in the batch's angle order of the first ray at the given angle or beyond
+    private static int firstAngleAtLeast(RayBatch batch, double angle) {
+        int low = 0;
+        int high = batch.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (batch.sortedAngle[middle] < angle) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Lower bound on the distance from the exact origin to any hit inside the node, infinite if the ray misses it
+    private double findEntryDistance(BVHNode node, double testX, double testY, double inverseDirX, double inverseDirY, double directionLength, double originOffset) {
+        if (node == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double entry = node.bounds.findRayEntry(testX, testY, inverseDirX, inverseDirY);
+        if (entry == Double.POSITIVE_INFINITY) {
+            return entry;
+        }
+        return entry * directionLength - originOffset;
     }
 
     @Override
@@ -427,6 +1682,15 @@ public class BoundedVolumeHierarchy implements BVH
         sb.append(node);
         sb.append("\n");
 
+        // a leaf with several shapes is printed as its bounds with one shape per line beneath it
+        if (node.isLeaf() && node.shapes.length > 1) {
+            for (Shape shape : node.shapes) {
+                sb.append("\t".repeat(depth + 1));
+                sb.append(shape);
+                sb.append("\n");
+            }
+        }
+
         toStringRecursive(node.leftChild, depth + 1, sb);
         toStringRecursive(node.rightChild, depth + 1, sb);
     }
@@ -455,17 +1719,83 @@ public class BoundedVolumeHierarchy implements BVH
         toStringDepthsRecursive(node.rightChild, depth + 1, sb);
     }
 
+    /**
+     * A reusable node stack for iterative queries, one per thread so queries allocate nothing and never overflow the
+     * call stack on deep trees. A query that starts while another on the same thread still holds the stack, e.g. from
+     * inside a consumer, gets a fresh one instead of overwriting it.
+     */
+    private static class TraversalStack {
+        private static final ThreadLocal<TraversalStack> CURRENT = ThreadLocal.withInitial(TraversalStack::new);
+
+        private BVHNode[] nodes = new BVHNode[64];
+        private double[] entries = new double[64];  // entry distance or time of each node, for ordered queries
+        private int top;
+        private int deepest;  // highest top reached since the last release
+        private boolean inUse;
+
+        static TraversalStack acquire() {
+            TraversalStack stack = CURRENT.get();
+            if (stack.inUse) {
+                stack = new TraversalStack();
+            }
+            stack.inUse = true;
+            return stack;
+        }
+
+        void release() {
+            // popped slots still hold nodes, which would keep removed nodes alive
+            Arrays.fill(nodes, 0, deepest, null);
+            top = 0;
+            deepest = 0;
+            inUse = false;
+        }
+
+        boolean isEmpty() {
+            return top == 0;
+        }
+
+        void push(BVHNode node) {
+            push(node, 0);
+        }
+
+        void push(BVHNode node, double entry) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                entries = Arrays.copyOf(entries, top * 2);
+            }
+            nodes[top] = node;
+            entries[top++] = entry;
+            if (top > deepest) {
+                deepest = top;
+            }
+        }
+
+        double peekEntry() {
+            return entries[top - 1];
+        }
+
+        BVHNode pop() {
+            return nodes[--top];
+        }
+    }
+
     class BVHNode {
         Rectangle bounds;
-        Shape shape;
+        Shape[] shapes; // null for internal nodes
         BVHNode leftChild;
         BVHNode rightChild;
+        BVHNode parent; // null for the root
         int height;
 
         // For leaf
         public BVHNode(Shape shape) {
-            this.shape = shape;
-            this.bounds = calcBoundingBox(shape);
+            this(new Shape[] {shape}, calcLeafBounds(new Shape[] {shape}));
+        }
+
+        // For leaf whose bounds are already known
+        public BVHNode(Shape[] shapes, Rectangle bounds) {
+            this.shapes = shapes;
+            this.bounds = bounds;
             this.leftChild = null;
             this.rightChild = null;
             this.height = 0;
@@ -473,10 +1803,10 @@ public class BoundedVolumeHierarchy implements BVH
 
         // For internal
         public BVHNode(Rectangle bounds, BVHNode left, BVHNode right) {
-            this.shape = null;
+            this.shapes = null;
             this.bounds = bounds;
-            this.leftChild = left;
-            this.rightChild = right;
+            setLeftChild(left);
+            setRightChild(right);
             int leftHeight = (left == null) ? -1 : left.height;
             int rightHeight = (right == null) ? -1 : right.height;
             this.height = Math.max(leftHeight, rightHeight) + 1;
@@ -486,9 +1816,23 @@ public class BoundedVolumeHierarchy implements BVH
             return leftChild == null && rightChild == null;
         }
 
+        public void setLeftChild(BVHNode child) {
+            this.leftChild = child;
+            if (child != null) {
+                child.parent = this;
+            }
+        }
+
+        public void setRightChild(BVHNode child) {
+            this.rightChild = child;
+            if (child != null) {
+                child.parent = this;
+            }
+        }
+
         public String toString() {
-            if (isLeaf()) {
-                return shape.toString();
+            if (isLeaf() && shapes.length == 1) {
+                return shapes[0].toString();
             }
             return bounds.toString();
         }
@@ -508,6 +1852,13 @@ public class BoundedVolumeHierarchy implements BVH
         return new Rectangle(shape.getMinSurroundingPoint(), shape.getMaxSurroundingPoint());
     }
 
+    // A new leaf's bounds: its shapes' bounds grown by the fat margin
+    private Rectangle calcLeafBounds(Shape[] shapes) {
+        Rectangle bounds = new Rectangle(new Point(), new Point());
+        fitLeafBounds(bounds, shapes, 0, 0);
+        return bounds;
+    }
+
     public Rectangle combineBoundingBoxes(List<Rectangle> rectangles){
         return new Rectangle(
                 new Point(
@@ -522,12 +1873,302 @@ public class BoundedVolumeHierarchy implements BVH
     }
 
     public Rectangle combineBoundingBoxes(Rectangle rect1, Rectangle rect2) {
-        return combineBoundingBoxes(Arrays.asList(rect1, rect2));
+        return new Rectangle(
+                new Point(Math.min(rect1.minPos.x, rect2.minPos.x), Math.min(rect1.minPos.y, rect2.minPos.y)),
+                new Point(Math.max(rect1.maxPos.x, rect2.maxPos.x), Math.max(rect1.maxPos.y, rect2.maxPos.y))
+        );
+    }
+
+
+    /**
+     * Updates the tree after a shape's geometry was changed in place, by refitting the bounds of its leaf and of
+     * each ancestor up to the first one whose bounds don't change. The tree's structure is kept, so a shape that
+     * moves far can leave its nodes loose; remove and insert it again, or rebuild, when that matters.
+     *
+     * @param shape   a shape instance that was built or inserted into the tree
+     * @return        whether any bounds changed. with a fat margin, false while the shape is still inside its leaf
+     */
+    public boolean refit(Shape shape) {
+        return refit(shape, 0, 0);
+    }
+
+    /**
+     * Same as refit(), but also stretches the leaf's bounds along where the shape is expected to move next,
+     * so a shape moving steadily can go several frames between updates.
+     *
+     * @param shape   a shape instance that was built or inserted into the tree
+     * @param dx      how far the shape is expected to move along x before its next refit
+     * @param dy      how far the shape is expected to move along y before its next refit
+     * @return        whether any bounds changed. with a fat margin, false while the shape is still inside its leaf
+     */
+    public boolean refit(Shape shape, int dx, int dy) {
+        BVHNode leaf = leafOf.get(shape);
+        if (leaf == null) {
+            throw new IllegalArgumentException("Shape is not in the tree: " + shape);
+        }
+        if (fatMargin > 0 && leafStillFits(leaf)) {
+            return false;
+        }
+        if (!fitLeafBounds(leaf.bounds, leaf.shapes, dx, dy)) {
+            return false;
+        }
+        for (BVHNode node = leaf.parent; node != null; node = node.parent) {
+            if (!refitInternal(node)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes every node's bounds in one bottom-up pass, for when most shapes have moved since the last call.
+     * Cheaper than refitting shapes one at a time, which would walk shared ancestors once per shape.
+     * With a fat margin, leaves whose shapes are still inside their bounds are left as they are.
+     */
+    public void refitAll() {
+        if (root != null) {
+            refitRecursive(root);
+        }
+    }
+
+    private void refitRecursive(BVHNode node) {
+        if (node.isLeaf()) {
+            if (fatMargin == 0 || !leafStillFits(node)) {
+                fitLeafBounds(node.bounds, node.shapes, 0, 0);
+            }
+            return;
+        }
+        refitRecursive(node.leftChild);
+        refitRecursive(node.rightChild);
+        refitInternal(node);
+    }
+
+    private boolean leafStillFits(BVHNode leaf) {
+        Rectangle bounds = leaf.bounds;
+        for (Shape shape : leaf.shapes) {
+            Point min = shape.getMinSurroundingPoint();
+            Point max = shape.getMaxSurroundingPoint();
+            if (min.x < bounds.minPos.x || min.y < bounds.minPos.y || max.x > bounds.maxPos.x || max.y > bounds.maxPos.y) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every node owns its bounds, so refits write into them instead of allocating. Both return whether they changed.
+    private boolean fitLeafBounds(Rectangle bounds, Shape[] shapes, int dx, int dy) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Shape shape : shapes) {
+            Point min = shape.getMinSurroundingPoint();
+            Point max = shape.getMaxSurroundingPoint();
+            minX = Math.min(minX, min.x);
+            minY = Math.min(minY, min.y);
+            maxX = Math.max(maxX, max.x);
+            maxY = Math.max(maxY, max.y);
+        }
+        // the margin goes on every side, the predicted move only on the side the shape is heading
+        return setBounds(bounds, minX - fatMargin + Math.min(dx, 0), minY - fatMargin + Math.min(dy, 0),
+                maxX + fatMargin + Math.max(dx, 0), maxY + fatMargin + Math.max(dy, 0));
+    }
+
+    private boolean refitInternal(BVHNode node) {
+        Rectangle left = node.leftChild.bounds;
+        Rectangle right = node.rightChild.bounds;
+        return setBounds(node.bounds,
+                Math.min(left.minPos.x, right.minPos.x), Math.min(left.minPos.y, right.minPos.y),
+                Math.max(left.maxPos.x, right.maxPos.x), Math.max(left.maxPos.y, right.maxPos.y));
     }
 
+    private boolean setBounds(Rectangle bounds, int minX, int minY, int maxX, int maxY) {
+        if (bounds.minPos.x == minX && bounds.minPos.y == minY && bounds.maxPos.x == maxX && bounds.maxPos.y == maxY) {
+            return false;
+        }
+        bounds.minPos.setLocation(minX, minY);
+        bounds.maxPos.setLocation(maxX, maxY);
+        return true;
+    }
 
     private double calcRectPerimeter(Rectangle rectangle) {
         return 2 * (rectangle.maxPos.x - rectangle.minPos.x) + 2 * (rectangle.maxPos.y - rectangle.minPos.y);
     }
 
+    private double calcUnionPerimeter(Rectangle rect1, Rectangle rect2) {
+        return calcPerimeter(Math.min(rect1.minPos.x, rect2.minPos.x), Math.min(rect1.minPos.y, rect2.minPos.y),
+                Math.max(rect1.maxPos.x, rect2.maxPos.x), Math.max(rect1.maxPos.y, rect2.maxPos.y));
+    }
+
+    private double calcPerimeter(int minX, int minY, int maxX, int maxY) {
+        return 2.0 * (maxX - minX) + 2.0 * (maxY - minY);
+    }
+
+    /**
+     * Calculates the surface area heuristic cost of the tree: the expected number of node visits and
+     * shape tests for a query, where each node is weighted by its perimeter relative to the root's.
+     *
+     * @return the SAH cost of the tree, 0 for an empty tree
+     */
+    public double calcSAHCost() {
+        if (root == null) {
+            return 0;
+        }
+        double rootPerimeter = calcRectPerimeter(root.bounds);
+        return calcSAHCostRecursive(root, rootPerimeter);
+    }
+
+    private double calcSAHCostRecursive(BVHNode node, double rootPerimeter) {
+        if (node == null) {
+            return 0;
+        }
+        double weight = rootPerimeter > 0 ? calcRectPerimeter(node.bounds) / rootPerimeter : 1;
+        if (node.isLeaf()) {
+            return weight * SAH_INTERSECTION_COST * node.shapes.length;
+        }
+        return weight * SAH_TRAVERSAL_COST
+                + calcSAHCostRecursive(node.leftChild, rootPerimeter)
+                + calcSAHCostRecursive(node.rightChild, rootPerimeter);
+    }
+
+    /**
+     * @return the number of edges on the longest path from the root to a leaf, 0 for a single leaf and -1 for an empty tree
+     */
+    public int getHeight() {
+        return height(root);
+    }
+
+    /**
+     * A one-line summary of the tree's shape and SAH cost, for comparing split methods on the same input.
+     *
+     * @return the split method, node and leaf counts, height and SAH cost of the tree
+     */
+    public String getCostReport() {
+        int[] counts = new int[3];
+        countNodesRecursive(root, counts);
+        return "split=" + splitMethod +
+                " maxLeafSize=" + maxLeafSize +
+                " nodes=" + counts[0] +
+                " leaves=" + counts[1] +
+                " height=" + height(root) +
+                " sahCost=" + String.format("%.3f", calcSAHCost());
+    }
+
+    private void countNodesRecursive(BVHNode node, int[] counts) {
+        if (node == null) {
+            return;
+        }
+        counts[0]++;
+        if (node.isLeaf()) {
+            counts[1]++;
+            counts[2] += node.shapes.length;
+        }
+        countNodesRecursive(node.leftChild, counts);
+        countNodesRecursive(node.rightChild, counts);
+    }
+
+    /**
+     * Copies the tree into a FrozenBVH, which answers the same queries from flat arrays.
+     * Later inserts and removes on this tree are not reflected in the copy.
+     *
+     * @return a read-only, array-backed copy of the current tree
+     */
+    public FrozenBVH freeze() {
+        int[] counts = new int[3]; // nodes, leaves, shapes
+        countNodesRecursive(root, counts);
+        int[] bounds = new int[counts[0] * 4];
+        int[] rightChild = new int[counts[0]];
+        int[] firstShape = new int[counts[0]];
+        int[] shapeCount = new int[counts[0]];
+        Shape[] shapes = new Shape[counts[2]];
+        int[] next = new int[2]; // next free node index, next free shape index
+        freezeRecursive(root, bounds, rightChild, firstShape, shapeCount, shapes, next);
+        return new FrozenBVH(bounds, rightChild, firstShape, shapeCount, shapes, height(root));
+    }
+
+    private void freezeRecursive(BVHNode node, int[] bounds, int[] rightChild, int[] firstShape, int[] shapeCount, Shape[] shapes, int[] next) {
+        if (node == null) {
+            return;
+        }
+        int index = next[0]++;
+        bounds[index * 4] = node.bounds.minPos.x;
+        bounds[index * 4 + 1] = node.bounds.minPos.y;
+        bounds[index * 4 + 2] = node.bounds.maxPos.x;
+        bounds[index * 4 + 3] = node.bounds.maxPos.y;
+        if (node.isLeaf()) {
+            rightChild[index] = -1;
+            firstShape[index] = next[1];
+            shapeCount[index] = node.shapes.length;
+            for (Shape shape : node.shapes) {
+                shapes[next[1]++] = shape;
+            }
+            return;
+        }
+        // depth-first order puts the left child right after its parent
+        freezeRecursive(node.leftChild, bounds, rightChild, firstShape, shapeCount, shapes, next);
+        rightChild[index] = next[0];
+        freezeRecursive(node.rightChild, bounds, rightChild, firstShape, shapeCount, shapes, next);
+    }
+
+    /**
+     * Copies the tree into a QuantizedBVH, which answers the same queries as a FrozenBVH with each node's bounds
+     * stored in 16 bits per side relative to its parent's, at about half the node memory.
+     * Later inserts and removes on this tree are not reflected in the copy.
+     *
+     * @return a read-only, array-backed copy of the current tree with quantized bounds
+     */
+    public QuantizedBVH freezeQuantized() {
+        int[] counts = new int[3]; // nodes, leaves, shapes
+        countNodesRecursive(root, counts);
+        double[] rootBounds = new double[4];
+        char[] bounds = new char[counts[0] * 4];
+        int[] link = new int[counts[0]];
+        char[] shapeCount = new char[counts[0]];
+        Shape[] shapes = new Shape[counts[2]];
+        if (root != null) {
+            // the root's grid spans its own exact bounds
+            rootBounds[0] = root.bounds.minPos.x;
+            rootBounds[1] = root.bounds.minPos.y;
+            rootBounds[2] = root.bounds.maxPos.x;
+            rootBounds[3] = root.bounds.maxPos.y;
+            int[] next = new int[2]; // next free node index, next free shape index
+            quantizeRecursive(root, rootBounds[0], rootBounds[1], rootBounds[2], rootBounds[3], bounds, link, shapeCount, shapes, next);
+        }
+        return new QuantizedBVH(rootBounds, bounds, link, shapeCount, shapes, height(root));
+    }
+
+    // Writes the node onto the grid across its parent's decoded bounds, then its children onto the grid across its own
+    private void quantizeRecursive(BVHNode node, double parentMinX, double parentMinY, double parentMaxX, double parentMaxY,
+                                   char[] bounds, int[] link, char[] shapeCount, Shape[] shapes, int[] next) {
+        int index = next[0]++;
+        double scaleX = QuantizedBVH.scaleOf(parentMinX, parentMaxX);
+        double scaleY = QuantizedBVH.scaleOf(parentMinY, parentMaxY);
+        char minX = QuantizedBVH.encodeMin(node.bounds.minPos.x, parentMinX, scaleX);
+        char minY = QuantizedBVH.encodeMin(node.bounds.minPos.y, parentMinY, scaleY);
+        char maxX = QuantizedBVH.encodeMax(node.bounds.maxPos.x, parentMinX, scaleX);
+        char maxY = QuantizedBVH.encodeMax(node.bounds.maxPos.y, parentMinY, scaleY);
+        bounds[index * 4] = minX;
+        bounds[index * 4 + 1] = minY;
+        bounds[index * 4 + 2] = maxX;
+        bounds[index * 4 + 3] = maxY;
+        if (node.isLeaf()) {
+            if (node.shapes.length > Character.MAX_VALUE) {
+                throw new IllegalArgumentException("Leaves with more than " + (int) Character.MAX_VALUE + " shapes can't be quantized.");
+            }
+            link[index] = -1 - next[1];
+            shapeCount[index] = (char) node.shapes.length;
+            for (Shape shape : node.shapes) {
+                shapes[next[1]++] = shape;
+            }
+            return;
+        }
+        // children are placed on the grid across the bounds queries will decode for this node, not its exact ones
+        double decodedMinX = QuantizedBVH.decode(parentMinX, scaleX, minX);
+        double decodedMinY = QuantizedBVH.decode(parentMinY, scaleY, minY);
+        double decodedMaxX = QuantizedBVH.decode(parentMinX, scaleX, maxX);
+        double decodedMaxY = QuantizedBVH.decode(parentMinY, scaleY, maxY);
+        // depth-first order puts the left child right after its parent
+        quantizeRecursive(node.leftChild, decodedMinX, decodedMinY, decodedMaxX, decodedMaxY, bounds, link, shapeCount, shapes, next);
+        link[index] = next[0];
+        quantizeRecursive(node.rightChild, decodedMinX, decodedMinY, decodedMaxX, decodedMaxY, bounds, link, shapeCount, shapes, next);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package assignment;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A read-only copy of a BoundedVolumeHierarchy laid out in primitive arrays.
+ *
+ * Nodes are numbered in depth-first order, so an internal node's left child is always the next node and only
+ * the right child's index has to be stored. Each leaf owns a contiguous range of the shapes array.
+ * Queries walk the arrays with an explicit stack instead of following node, Rectangle and Point references, and
+ * reuse one stack per thread like the tree this came from.
+ */
+public class FrozenBVH
+{
+    private final int[] bounds;      // minX, minY, maxX, maxY for each node
+    private final int[] rightChild;  // index of the right child, -1 for leaves
+    private final int[] firstShape;  // start of a leaf's range in shapes
+    private final int[] shapeCount;  // size of a leaf's range in shapes, 0 for internal nodes
+    private final Shape[] shapes;
+    private final int stackSize;
+
+    FrozenBVH(int[] bounds, int[] rightChild, int[] firstShape, int[] shapeCount, Shape[] shapes, int height) {
+        this.bounds = bounds;
+        this.rightChild = rightChild;
+        this.firstShape = firstShape;
+        this.shapeCount = shapeCount;
+        this.shapes = shapes;
+        this.stackSize = height + 2;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return rightChild.length;
+    }
+
+    /**
+     * @return the bytes held by the node arrays, not counting the shapes themselves
+     */
+    public long getNodeBytes() {
+        return 4L * (bounds.length + rightChild.length + firstShape.length + shapeCount.length);
+    }
+
+    /**
+     * Finds objects in the tree where a point would be inside the object
+     *
+     * @param point   the point to detect collisions against
+     * @return        a set of shapes that contain the passed in point, empty if none do
+     */
+    public Set<Shape> findCollision(Point2D.Double point) {
+        Set<Shape> result = new HashSet<>();
+        findCollision(point, result::add);
+        return result;
+    }
+
+    /**
+     * Passes every object in the tree where a point would be inside the object to a consumer, without building a set
+     *
+     * @param point     the point to detect collisions against
+     * @param consumer  called once for each shape that contains the passed in point
+     */
+    public void findCollision(Point2D.Double point, Consumer<Shape> consumer) {
+        if (shapes.length == 0) {
+            return;
+        }
+        double x = point.getX();
+        double y = point.getY();
+
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                int base = node * 4;
+                if (x < bounds[base] || y < bounds[base + 1] || x > bounds[base + 2] || y > bounds[base + 3]) {
+                    continue;
+                }
+                if (shapeCount[node] > 0) {
+                    for (int i = firstShape[node]; i < firstShape[node] + shapeCount[node]; i++) {
+                        if (shapes[i].containsPoint(point)) {
+                            consumer.accept(shapes[i]);
+                        }
+                    }
+                    continue;
+                }
+                stack[top++] = rightChild[node];
+                stack[top++] = node + 1;
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Finds the first shape that a ray would hit
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @return              the shape that the given origin and direction first intersects with, null if none
+     */
+    public Shape intersectRay(Point2D.Double origin, Vector2D direction) {
+        RayHit hit = new RayHit();
+        return intersectRay(origin, direction, hit) ? hit.shape : null;
+    }
+
+    /**
+     * Finds where a ray first hits a shape, without allocating a result
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay(Point2D.Double origin, Vector2D direction, RayHit hit) {
+        // the shapes are tested from the whole-number origin, the same as in the tree this came from
+        return castRay(origin.getX(), origin.getY(), (int) origin.getX(), (int) origin.getY(), direction.getX(), direction.getY(), hit);
+    }
+
+    /**
+     * Finds where a ray first hits a shape, testing the shapes from the exact origin. Allocates
+     * nothing once the thread's reused traversal stack has grown to the tree's height.
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay(double originX, double originY, double directionX, double directionY, RayHit hit) {
+        return castRay(originX, originY, originX, originY, directionX, directionY, hit);
+    }
+
+    // Boxes and shapes are tested from (testX, testY), hit distances are measured from (originX, originY)
+    private boolean castRay(double originX, double originY, double testX, double testY, double directionX, double directionY, RayHit hit) {
+        hit.reset();
+        if (shapes.length == 0) {
+            return false;
+        }
+        double inverseDirX = 1 / directionX;
+        double inverseDirY = 1 / directionY;
+        double directionLength = Math.hypot(directionX, directionY);
+        // box distances from the test origin can be short by this much
+        double originOffset = Point2D.distance(originX, originY, testX, testY);
+        RayHit candidate = RayHit.candidate();
+
+        // nodes are pushed with the distance at which the ray enters them, nearer child on top
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            double[] stackEntry = slots.entries;
+            int top = 0;
+            stack[top] = 0;
+            stackEntry[top++] = findEntryDistance(0, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+            while (top > 0) {
+                int node = stack[--top];
+                if (stackEntry[top] >= hit.distance) {
+                    continue; // missed, or starts behind a hit found since it was pushed
+                }
+                if (shapeCount[node] > 0) {
+                    for (int i = firstShape[node]; i < firstShape[node] + shapeCount[node]; i++) {
+                        if (shapes[i].findIntersection(testX, testY, directionX, directionY, candidate)) {
+                            if (originOffset != 0) {
+                                candidate.distance = Point2D.distance(originX, originY, candidate.x, candidate.y);
+                            }
+                            if (candidate.distance < hit.distance) {
+                                hit.set(candidate);
+                            }
+                        }
+                    }
+                    continue;
+                }
+
+                int near = node + 1;
+                int far = rightChild[node];
+                double nearEntry = findEntryDistance(near, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                double farEntry = findEntryDistance(far, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                if (farEntry < nearEntry) {
+                    int temp = near;
+                    near = far;
+                    far = temp;
+                    double tempEntry = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = tempEntry;
+                }
+                if (farEntry < hit.distance) {
+                    stack[top] = far;
+                    stackEntry[top++] = farEntry;
+                }
+                if (nearEntry < hit.distance) {
+                    stack[top] = near;
+                    stackEntry[top++] = nearEntry;
+                }
+            }
+            return hit.shape != null;
+        } finally {
+            slots.release();
+        }
+    }
+
+    // Lower bound on the distance from the exact origin to any hit inside the node, infinite if the ray misses it
+    private double findEntryDistance(int node, double testX, double testY, double inverseDirX, double inverseDirY, double directionLength, double originOffset) {
+        int base = node * 4;
+        double entry = Rectangle.findRayEntry(bounds[base], bounds[base + 1], bounds[base + 2], bounds[base + 3], testX, testY, inverseDirX, inverseDirY);
+        if (entry == Double.POSITIVE_INFINITY) {
+            return entry;
+        }
+        return entry * directionLength - originOffset;
+    }
+}
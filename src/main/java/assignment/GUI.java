@@ -55,10 +55,7 @@ class BVHVisualization extends JPanel
     protected void paintComponent(Graphics g)
     {
         super.paintComponent(g);
-        g.setColor(Color.BLACK);
-        LinkedList<Point> points = GUI.visualization.drawGUI();
-        for (Point point : points)
-            g.fillRect(point.x, point.y, 1, 1);
+        g.drawImage(GUI.visualization.renderFrame(), 0, 0, null);
 
         g.setColor(Color.BLUE);
         g.fillRect(190, 190, 21, 21);
@@ -0,0 +1,39 @@
+package assignment;
+
+/**
+ * A reusable stack of node indices for the array-backed trees' queries, one per thread like
+ * BoundedVolumeHierarchy's TraversalStack. Each slot has room beside it for the distance at which a ray enters the
+ * node and for four decoded bounds. Queries index the arrays directly, so acquire() grows them to the tree's height
+ * first. A query that starts while another on the same thread still holds the stack, e.g. from inside a consumer,
+ * gets a fresh one instead of overwriting it.
+ */
+class IndexStack {
+    private static final ThreadLocal<IndexStack> CURRENT = ThreadLocal.withInitial(IndexStack::new);
+
+    int[] nodes = new int[0];
+    double[] entries = new double[0];  // entry distance of each node, for ordered queries
+    double[] bounds = new double[0];   // minX, minY, maxX, maxY of each node, for trees that decode them
+    private boolean inUse;
+
+    /**
+     * @param size  the most slots the query can use at once
+     * @return      this thread's stack, or a fresh one if it's already in use
+     */
+    static IndexStack acquire(int size) {
+        IndexStack stack = CURRENT.get();
+        if (stack.inUse) {
+            stack = new IndexStack();
+        }
+        if (stack.nodes.length < size) {
+            stack.nodes = new int[size];
+            stack.entries = new double[size];
+            stack.bounds = new double[size * 4];
+        }
+        stack.inUse = true;
+        return stack;
+    }
+
+    void release() {
+        inUse = false;
+    }
+}
@@ -0,0 +1,307 @@
+package assignment;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A read-only copy of a BoundedVolumeHierarchy like FrozenBVH, with each node's bounds squeezed into four 16-bit
+ * values measured on a grid across its parent's bounds.
+ *
+ * A node's grid spans its parent's decoded bounds in QUANTIZATION_STEPS steps, and its sides are rounded outward onto
+ * it, so the decoded bounds always contain the real ones. Queries decode children as they reach them and test them
+ * exactly as FrozenBVH does, so they return the same shapes and hit distances. Looser bounds only mean more boxes
+ * to test. Nodes take 14 bytes instead of FrozenBVH's 28.
+ */
+public class QuantizedBVH
+{
+    // the grid is one step shorter than the 16 bits allow, so the largest value always decodes past the parent's side
+    private static final int QUANTIZATION_STEPS = 65534;
+    private static final char LARGEST_VALUE = 65535;
+
+    private final double[] rootBounds; // minX, minY, maxX, maxY the root's grid spans
+    private final char[] bounds;       // minX, minY, maxX, maxY for each node, on its parent's grid
+    private final int[] link;          // index of the right child, or -1 - the start of a leaf's range in shapes
+    private final char[] shapeCount;   // size of a leaf's range in shapes, 0 for internal nodes
+    private final Shape[] shapes;
+    private final int stackSize;
+
+    QuantizedBVH(double[] rootBounds, char[] bounds, int[] link, char[] shapeCount, Shape[] shapes, int height) {
+        this.rootBounds = rootBounds;
+        this.bounds = bounds;
+        this.link = link;
+        this.shapeCount = shapeCount;
+        this.shapes = shapes;
+        this.stackSize = height + 2;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return link.length;
+    }
+
+    /**
+     * @return the bytes held by the node arrays, not counting the shapes themselves
+     */
+    public long getNodeBytes() {
+        return 8L * rootBounds.length + 2L * bounds.length + 4L * link.length + 2L * shapeCount.length;
+    }
+
+    /**
+     * Finds objects in the tree where a point would be inside the object
+     *
+     * @param point   the point to detect collisions against
+     * @return        a set of shapes that contain the passed in point, empty if none do
+     */
+    public Set<Shape> findCollision(Point2D.Double point) {
+        Set<Shape> result = new HashSet<>();
+        findCollision(point, result::add);
+        return result;
+    }
+
+    /**
+     * Passes every object in the tree where a point would be inside the object to a consumer, without building a set
+     *
+     * @param point     the point to detect collisions against
+     * @param consumer  called once for each shape that contains the passed in point
+     */
+    public void findCollision(Point2D.Double point, Consumer<Shape> consumer) {
+        if (shapes.length == 0) {
+            return;
+        }
+        double x = point.getX();
+        double y = point.getY();
+
+        // each node is pushed with its decoded bounds, which its children's grid is laid across
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            double[] stackBounds = slots.bounds;
+            int top = 0;
+            top = push(stack, stackBounds, top, 0, rootBounds[0], rootBounds[1], rootBounds[2], rootBounds[3]);
+            while (top > 0) {
+                int node = stack[--top];
+                int base = top * 4;
+                double minX = stackBounds[base];
+                double minY = stackBounds[base + 1];
+                double maxX = stackBounds[base + 2];
+                double maxY = stackBounds[base + 3];
+                if (x < minX || y < minY || x > maxX || y > maxY) {
+                    continue;
+                }
+                if (link[node] < 0) {
+                    int first = -1 - link[node];
+                    for (int i = first; i < first + shapeCount[node]; i++) {
+                        if (shapes[i].containsPoint(point)) {
+                            consumer.accept(shapes[i]);
+                        }
+                    }
+                    continue;
+                }
+                top = push(stack, stackBounds, top, link[node], minX, minY, maxX, maxY);
+                top = push(stack, stackBounds, top, node + 1, minX, minY, maxX, maxY);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    // Pushes a node with its bounds decoded on the grid across its parent's
+    private int push(int[] stack, double[] stackBounds, int top, int node, double parentMinX, double parentMinY, double parentMaxX, double parentMaxY) {
+        double scaleX = scaleOf(parentMinX, parentMaxX);
+        double scaleY = scaleOf(parentMinY, parentMaxY);
+        int base = node * 4;
+        stack[top] = node;
+        stackBounds[top * 4] = decode(parentMinX, scaleX, bounds[base]);
+        stackBounds[top * 4 + 1] = decode(parentMinY, scaleY, bounds[base + 1]);
+        stackBounds[top * 4 + 2] = decode(parentMinX, scaleX, bounds[base + 2]);
+        stackBounds[top * 4 + 3] = decode(parentMinY, scaleY, bounds[base + 3]);
+        return top + 1;
+    }
+
+    /**
+     * Finds the first shape that a ray would hit
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @return              the shape that the given origin and direction first intersects with, null if none
+     */
+    public Shape intersectRay(Point2D.Double origin, Vector2D direction) {
+        RayHit hit = new RayHit();
+        return intersectRay(origin, direction, hit) ? hit.shape : null;
+    }
+
+    /**
+     * Finds where a ray first hits a shape, without allocating a result
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay(Point2D.Double origin, Vector2D direction, RayHit hit) {
+        // the shapes are tested from the whole-number origin, the same as in the tree this came from
+        return castRay(origin.getX(), origin.getY(), (int) origin.getX(), (int) origin.getY(), direction.getX(), direction.getY(), hit);
+    }
+
+    /**
+     * Finds where a ray first hits a shape, testing the shapes from the exact origin
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any shape
+     */
+    public boolean intersectRay(double originX, double originY, double directionX, double directionY, RayHit hit) {
+        return castRay(originX, originY, originX, originY, directionX, directionY, hit);
+    }
+
+    // Boxes and shapes are tested from (testX, testY), hit distances are measured from (originX, originY)
+    private boolean castRay(double originX, double originY, double testX, double testY, double directionX, double directionY, RayHit hit) {
+        hit.reset();
+        if (shapes.length == 0) {
+            return false;
+        }
+        double inverseDirX = 1 / directionX;
+        double inverseDirY = 1 / directionY;
+        double directionLength = Math.hypot(directionX, directionY);
+        // box distances from the test origin can be short by this much
+        double originOffset = Point2D.distance(originX, originY, testX, testY);
+        RayHit candidate = RayHit.candidate();
+
+        // nodes are pushed with their decoded bounds and the distance at which the ray enters them, nearer child on top
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            double[] stackBounds = slots.bounds;
+            double[] stackEntry = slots.entries;
+            int top = push(stack, stackBounds, 0, 0, rootBounds[0], rootBounds[1], rootBounds[2], rootBounds[3]);
+            stackEntry[0] = findEntryDistance(stackBounds, 0, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+            while (top > 0) {
+                int node = stack[--top];
+                if (stackEntry[top] >= hit.distance) {
+                    continue; // missed, or starts behind a hit found since it was pushed
+                }
+                if (link[node] < 0) {
+                    int first = -1 - link[node];
+                    for (int i = first; i < first + shapeCount[node]; i++) {
+                        if (shapes[i].findIntersection(testX, testY, directionX, directionY, candidate)) {
+                            if (originOffset != 0) {
+                                candidate.distance = Point2D.distance(originX, originY, candidate.x, candidate.y);
+                            }
+                            if (candidate.distance < hit.distance) {
+                                hit.set(candidate);
+                            }
+                        }
+                    }
+                    continue;
+                }
+
+                // both children are decoded into the two slots above this one, then the far one is pushed first
+                int base = top * 4;
+                double minX = stackBounds[base];
+                double minY = stackBounds[base + 1];
+                double maxX = stackBounds[base + 2];
+                double maxY = stackBounds[base + 3];
+                int far = push(stack, stackBounds, top, link[node], minX, minY, maxX, maxY) - 1;
+                int near = push(stack, stackBounds, far + 1, node + 1, minX, minY, maxX, maxY) - 1;
+                double farEntry = findEntryDistance(stackBounds, far, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                double nearEntry = findEntryDistance(stackBounds, near, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                if (farEntry < nearEntry) {
+                    swapSlots(stack, stackBounds, far, near);
+                    double temp = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = temp;
+                }
+                if (farEntry < hit.distance) {
+                    stackEntry[top++] = farEntry;
+                } else {
+                    // the near child drops into the far one's slot
+                    swapSlots(stack, stackBounds, far, near);
+                }
+                if (nearEntry < hit.distance) {
+                    stackEntry[top++] = nearEntry;
+                }
+            }
+            return hit.shape != null;
+        } finally {
+            slots.release();
+        }
+    }
+
+    private void swapSlots(int[] stack, double[] stackBounds, int first, int second) {
+        int node = stack[first];
+        stack[first] = stack[second];
+        stack[second] = node;
+        for (int i = 0; i < 4; i++) {
+            double value = stackBounds[first * 4 + i];
+            stackBounds[first * 4 + i] = stackBounds[second * 4 + i];
+            stackBounds[second * 4 + i] = value;
+        }
+    }
+
+    // Lower bound on the distance from the exact origin to any hit inside the slot's bounds, infinite if the ray misses them
+    private double findEntryDistance(double[] stackBounds, int slot, double testX, double testY, double inverseDirX, double inverseDirY, double directionLength, double originOffset) {
+        int base = slot * 4;
+        double entry = Rectangle.findRayEntry(stackBounds[base], stackBounds[base + 1], stackBounds[base + 2], stackBounds[base + 3], testX, testY, inverseDirX, inverseDirY);
+        if (entry == Double.POSITIVE_INFINITY) {
+            return entry;
+        }
+        return entry * directionLength - originOffset;
+    }
+
+    /**
+     * @return the size of one step on the grid across a parent's side from min to max
+     */
+    static double scaleOf(double min, double max) {
+        return (max - min) / QUANTIZATION_STEPS;
+    }
+
+    /**
+     * @return the coordinate a grid value stands for. Encoding and querying both go through here, so they agree
+     *         to the last bit on where a value lands.
+     */
+    static double decode(double min, double scale, char value) {
+        return min + value * scale;
+    }
+
+    /**
+     * @return the largest grid value that decodes to no more than the coordinate
+     */
+    static char encodeMin(double coordinate, double min, double scale) {
+        if (scale == 0) {
+            return 0;
+        }
+        int value = (int) Math.max(0, Math.min(LARGEST_VALUE, Math.floor((coordinate - min) / scale)));
+        // floating point rounding can land a step either side of where it should, so walk to the right one
+        while (value > 0 && decode(min, scale, (char) value) > coordinate) {
+            value--;
+        }
+        while (value < LARGEST_VALUE && decode(min, scale, (char) (value + 1)) <= coordinate) {
+            value++;
+        }
+        return (char) value;
+    }
+
+    /**
+     * @return the smallest grid value that decodes to no less than the coordinate
+     */
+    static char encodeMax(double coordinate, double min, double scale) {
+        if (scale == 0) {
+            return 0;
+        }
+        int value = (int) Math.max(0, Math.min(LARGEST_VALUE, Math.ceil((coordinate - min) / scale)));
+        while (value < LARGEST_VALUE && decode(min, scale, (char) value) < coordinate) {
+            value++;
+        }
+        while (value > 0 && decode(min, scale, (char) (value - 1)) >= coordinate) {
+            value--;
+        }
+        return (char) value;
+    }
+}
@@ -0,0 +1,146 @@
+package assignment;
+
+import java.util.Arrays;
+
+/**
+ * A batch of rays and the nearest hit of each, stored in parallel arrays indexed by ray.
+ * A batch is sized once and refilled every frame, so casting it allocates nothing per ray.
+ */
+public class RayBatch
+{
+    public final double[] originX;
+    public final double[] originY;
+    public final double[] directionX;
+    public final double[] directionY;
+    public final double[] maxDistance;  // hits this far away or farther are ignored, Double.POSITIVE_INFINITY for no limit
+
+    public final Shape[] hitShape;      // null where the ray hit nothing
+    public final double[] hitDistance;  // Double.POSITIVE_INFINITY where the ray hit nothing
+    public final double[] hitX;
+    public final double[] hitY;
+
+    private int size;
+
+    // set by indexByAngle(): ray indices in order of their direction's angle, then those angles and directions in
+    // the same order, so a fan walks through them in step, and the box around every point the rays reach, relative
+    // to their origin
+    int[] angleOrder;
+    double[] sortedAngle;
+    double[] sortedDirectionX;
+    double[] sortedDirectionY;
+    double[] sortedBest;  // the nearest hit distance so far of each ray while a fan is cast
+    double reachMinX, reachMinY, reachMaxX, reachMaxY;
+
+    /**
+     * @param capacity      the most rays the batch can hold
+     */
+    public RayBatch(int capacity)
+    {
+        originX = new double[capacity];
+        originY = new double[capacity];
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        maxDistance = new double[capacity];
+        Arrays.fill(maxDistance, Double.POSITIVE_INFINITY);
+        hitShape = new Shape[capacity];
+        hitDistance = new double[capacity];
+        hitX = new double[capacity];
+        hitY = new double[capacity];
+        size = capacity;
+    }
+
+    /**
+     * @return the number of rays in the batch, counting from index 0
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Changes how many of the batch's slots hold rays to cast
+     *
+     * @param size          the number of rays, no more than the capacity
+     */
+    public void setSize(int size)
+    {
+        if (size < 0 || size > originX.length)
+        {
+            throw new IllegalArgumentException("RayBatch size must be between 0 and " + originX.length + ".");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Sets the ray at the given index, with no limit on how far away its hit can be
+     */
+    public void setRay(int index, double originX, double originY, double directionX, double directionY)
+    {
+        setRay(index, originX, originY, directionX, directionY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Sets the ray at the given index, ignoring hits maxDistance or more from its origin. Nodes beyond it are
+     * never visited, so a short ray costs less than a long one.
+     */
+    public void setRay(int index, double originX, double originY, double directionX, double directionY, double maxDistance)
+    {
+        this.originX[index] = originX;
+        this.originY[index] = originY;
+        this.directionX[index] = directionX;
+        this.directionY[index] = directionY;
+        this.maxDistance[index] = maxDistance;
+    }
+
+    /**
+     * Sorts the rays by the angle of their direction for BVH.intersectRayFan(), and works out how far they reach.
+     * The index isn't kept up to date, so call this again after changing the size or any ray's direction or
+     * maxDistance. Origins can change freely.
+     */
+    public void indexByAngle()
+    {
+        double[] angle = new double[size];
+        Integer[] order = new Integer[size];
+        reachMinX = reachMinY = reachMaxX = reachMaxY = 0;
+        for (int i = 0; i < size; i++)
+        {
+            angle[i] = Math.atan2(directionY[i], directionX[i]);
+            order[i] = i;
+
+            // a hair past the limit, so rounding can't pull the box in front of a hit
+            double scale = maxDistance[i] / Math.hypot(directionX[i], directionY[i]) * (1 + Shape.EPSILON);
+            if (directionX[i] != 0)
+            {
+                reachMinX = Math.min(reachMinX, directionX[i] * scale);
+                reachMaxX = Math.max(reachMaxX, directionX[i] * scale);
+            }
+            if (directionY[i] != 0)
+            {
+                reachMinY = Math.min(reachMinY, directionY[i] * scale);
+                reachMaxY = Math.max(reachMaxY, directionY[i] * scale);
+            }
+        }
+        Arrays.sort(order, (first, second) -> Double.compare(angle[first], angle[second]));
+
+        angleOrder = new int[size];
+        sortedAngle = new double[size];
+        sortedDirectionX = new double[size];
+        sortedDirectionY = new double[size];
+        sortedBest = new double[size];
+        for (int i = 0; i < size; i++)
+        {
+            angleOrder[i] = order[i];
+            sortedAngle[i] = angle[order[i]];
+            sortedDirectionX[i] = directionX[order[i]];
+            sortedDirectionY[i] = directionY[order[i]];
+        }
+    }
+
+    void setHit(int index, RayHit hit)
+    {
+        hitShape[index] = hit.shape;
+        hitDistance[index] = hit.distance;
+        hitX[index] = hit.x;
+        hitY[index] = hit.y;
+    }
+}
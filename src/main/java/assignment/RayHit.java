@@ -0,0 +1,47 @@
+package assignment;
+
+/**
+ * Where a ray query hit. Callers keep one record and hand it to every query, so the query itself has
+ * nothing to allocate for its result.
+ */
+public class RayHit
+{
+    private static final ThreadLocal<RayHit> CANDIDATE = ThreadLocal.withInitial(RayHit::new);
+
+    public Shape shape;      // the shape that was hit, null if nothing was
+    public double distance;  // from the ray's origin to the hit point
+    public double x, y;      // the hit point
+    public int edge;         // which edge of the shape was struck, -1 if the shape doesn't number its edges
+
+    public RayHit()
+    {
+        reset();
+    }
+
+    /**
+     * Clears the record back to a miss
+     */
+    public void reset()
+    {
+        shape = null;
+        distance = Double.POSITIVE_INFINITY;
+        x = Double.NaN;
+        y = Double.NaN;
+        edge = -1;
+    }
+
+    void set(RayHit other)
+    {
+        shape = other.shape;
+        distance = other.distance;
+        x = other.x;
+        y = other.y;
+        edge = other.edge;
+    }
+
+    // Per-thread record for a traversal to test each candidate shape into before keeping the best one
+    static RayHit candidate()
+    {
+        return CANDIDATE.get();
+    }
+}
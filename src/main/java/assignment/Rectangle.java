@@ -24,12 +24,62 @@ public class Rectangle implements Shape
      */
     public boolean doesRayIntersect (Point origin, Vector2D direction)
     {
-        Triangle triangle = new Triangle(new Point((int) minPos.getX(), (int) minPos.getY()), new Point((int) minPos.getX(), (int) maxPos.getY()), new Point((int) maxPos.getX(), (int) minPos.getY()));
-        if (triangle.findIntersection(origin, direction) != null)
-            return true;
+        return findRayEntry(origin.getX(), origin.getY(), 1 / direction.getX(), 1 / direction.getY()) != Double.POSITIVE_INFINITY;
+    }
 
-        triangle = new Triangle(new Point((int) maxPos.getX(), (int) maxPos.getY()), new Point((int) minPos.getX(), (int) maxPos.getY()), new Point((int) maxPos.getX(), (int) minPos.getY()));
-        return triangle.findIntersection(origin, direction) != null;
+    /**
+     * Finds where a ray enters the rectangle using the slab method. Nothing is allocated, so this is cheap
+     * enough to run on every node a ray visits.
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param inverseDirX   1 divided by the x component of the ray's direction, infinite when it is 0
+     * @param inverseDirY   1 divided by the y component of the ray's direction, infinite when it is 0
+     * @return              how many direction vectors along the ray it enters the rectangle, 0 if it starts inside.
+     *                      returns Double.POSITIVE_INFINITY if the ray misses the rectangle.
+     */
+    public double findRayEntry (double originX, double originY, double inverseDirX, double inverseDirY)
+    {
+        return findRayEntry(minPos.x, minPos.y, maxPos.x, maxPos.y, originX, originY, inverseDirX, inverseDirY);
+    }
+
+    /**
+     * Same as findRayEntry(double, double, double, double) for a rectangle given by its corner coordinates
+     */
+    public static double findRayEntry (double minX, double minY, double maxX, double maxY, double originX, double originY, double inverseDirX, double inverseDirY)
+    {
+        double tEnter = 0;
+        double tExit = Double.POSITIVE_INFINITY;
+
+        // a ray parallel to a slab never enters or leaves it, so it only has to start inside
+        if (Double.isInfinite(inverseDirX))
+        {
+            if (originX < minX || originX > maxX)
+                return Double.POSITIVE_INFINITY;
+        }
+        else
+        {
+            double t1 = (minX - originX) * inverseDirX;
+            double t2 = (maxX - originX) * inverseDirX;
+            tEnter = Math.max(tEnter, Math.min(t1, t2));
+            tExit = Math.min(tExit, Math.max(t1, t2));
+        }
+
+        if (Double.isInfinite(inverseDirY))
+        {
+            if (originY < minY || originY > maxY)
+                return Double.POSITIVE_INFINITY;
+        }
+        else
+        {
+            double t1 = (minY - originY) * inverseDirY;
+            double t2 = (maxY - originY) * inverseDirY;
+            tEnter = Math.max(tEnter, Math.min(t1, t2));
+            tExit = Math.min(tExit, Math.max(t1, t2));
+        }
+
+        // rays through a corner meet both slabs at the same t, which rounding can leave a hair apart
+        return tEnter - tExit <= Shape.EPSILON * Math.max(1, tExit) ? tEnter : Double.POSITIVE_INFINITY;
     }
 
     @Override
@@ -53,7 +103,35 @@ public class Rectangle implements Shape
     @Override
     public Point2D.Double findIntersection(Point origin, Vector2D direction)
     {
-        throw new UnsupportedOperationException();
+        RayHit hit = new RayHit();
+        if (!findIntersection(origin, direction, hit))
+            return null;
+
+        return new Point2D.Double(hit.x, hit.y);
+    }
+
+    @Override
+    public boolean findIntersection(Point origin, Vector2D direction, RayHit hit)
+    {
+        return findIntersection(origin.x, origin.y, direction.getX(), direction.getY(), hit);
+    }
+
+    /**
+     * The rectangle is solid, so a ray that starts inside it hits at its origin. Its sides aren't numbered.
+     */
+    @Override
+    public boolean findIntersection(double originX, double originY, double directionX, double directionY, RayHit hit)
+    {
+        double t = findRayEntry(originX, originY, 1 / directionX, 1 / directionY);
+        if (t == Double.POSITIVE_INFINITY)
+            return false;
+
+        hit.shape = this;
+        hit.distance = t * Math.sqrt(directionX * directionX + directionY * directionY);
+        hit.x = originX + t * directionX;
+        hit.y = originY + t * directionY;
+        hit.edge = -1;
+        return true;
     }
 
     @Override
@@ -68,6 +146,23 @@ public class Rectangle implements Shape
         return true;
     }
 
+    @Override
+    public boolean intersectsBox(double minX, double minY, double maxX, double maxY)
+    {
+        return minPos.getX() <= maxX && maxPos.getX() >= minX && minPos.getY() <= maxY && maxPos.getY() >= minY;
+    }
+
+    /**
+     * The moving box touches the rectangle while its min corner is inside the rectangle grown by the box's size
+     * toward min, so this is the min corner's ray entry into that grown rectangle
+     */
+    @Override
+    public double sweepBox(double minX, double minY, double maxX, double maxY, double dx, double dy)
+    {
+        double entry = findRayEntry(minPos.x - (maxX - minX), minPos.y - (maxY - minY), maxPos.x, maxPos.y, minX, minY, 1 / dx, 1 / dy);
+        return entry <= 1 ? entry : Double.POSITIVE_INFINITY;
+    }
+
     @Override
     public String toString()
     {
@@ -36,6 +36,30 @@ public interface Shape
      */
     public Point2D.Double findIntersection (Point origin, Vector2D direction);
 
+    /**
+     * Finds where a ray first hits a shape and records the hit
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that starts at (0,0) to represent the direction of the ray
+     * @param hit           filled in with this shape, the hit point, its distance from origin and the edge struck.
+     *                      left untouched if the ray misses.
+     * @return              whether the ray intersects the shape
+     */
+    public boolean findIntersection (Point origin, Vector2D direction, RayHit hit);
+
+    /**
+     * Finds where a ray from an exact, possibly fractional, origin first hits a shape and records the hit
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @param hit           filled in with this shape, the hit point, its distance from the origin and the edge struck.
+     *                      left untouched if the ray misses.
+     * @return              whether the ray intersects the shape
+     */
+    public boolean findIntersection (double originX, double originY, double directionX, double directionY, RayHit hit);
+
     /**
      * Finds if a given point is within a shape
      *
@@ -44,6 +68,31 @@ public interface Shape
      */
     public boolean containsPoint (Point2D.Double point);
 
+    /**
+     * Finds if any part of a shape overlaps an axis-aligned box, touching included
+     *
+     * @param minX          the left edge of the box
+     * @param minY          the bottom edge of the box
+     * @param maxX          the right edge of the box
+     * @param maxY          the top edge of the box
+     * @return              whether the shape and the box overlap
+     */
+    public boolean intersectsBox (double minX, double minY, double maxX, double maxY);
+
+    /**
+     * Finds when an axis-aligned box moving in a straight line first touches a shape
+     *
+     * @param minX          the left edge of the box before it moves
+     * @param minY          the bottom edge of the box before it moves
+     * @param maxX          the right edge of the box before it moves
+     * @param maxY          the top edge of the box before it moves
+     * @param dx            how far the box moves along x
+     * @param dy            how far the box moves along y
+     * @return              the fraction of the motion, from 0 to 1, at which the box first touches the shape.
+     *                      0 if they already overlap, Double.POSITIVE_INFINITY if they never touch.
+     */
+    public double sweepBox (double minX, double minY, double maxX, double maxY, double dx, double dy);
+
     /**
      * Calculates the point that two lines intersect using the line line intersection method
      *
@@ -0,0 +1,144 @@
+package assignment;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+
+/**
+ * A triangle in a TriangleSoup, seen as a Shape. It holds nothing but the soup and the triangle's index, so views
+ * can be made for results as they're needed and thrown away. Two views of the same triangle in the same soup are equal.
+ */
+public class SoupTriangle implements Shape
+{
+    private final TriangleSoup soup;
+    private final int index;
+
+    SoupTriangle(TriangleSoup soup, int index)
+    {
+        this.soup = soup;
+        this.index = index;
+    }
+
+    /**
+     * @return the soup the triangle is in
+     */
+    public TriangleSoup getSoup()
+    {
+        return soup;
+    }
+
+    /**
+     * @return the triangle's index in its soup
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * @return a standalone copy of the triangle
+     */
+    public Triangle toTriangle()
+    {
+        return new Triangle(new Point(x(0), y(0)), new Point(x(1), y(1)), new Point(x(2), y(2)));
+    }
+
+    @Override
+    public Point getMinSurroundingPoint()
+    {
+        return new Point(Math.min(x(0), Math.min(x(1), x(2))), Math.min(y(0), Math.min(y(1), y(2))));
+    }
+
+    @Override
+    public Point getMaxSurroundingPoint()
+    {
+        return new Point(Math.max(x(0), Math.max(x(1), x(2))), Math.max(y(0), Math.max(y(1), y(2))));
+    }
+
+    @Override
+    public Point2D.Double getCenter()
+    {
+        return new Point2D.Double(((double) x(0) + x(1) + x(2)) / 3, ((double) y(0) + y(1) + y(2)) / 3);
+    }
+
+    @Override
+    public Point2D.Double findIntersection(Point origin, Vector2D direction)
+    {
+        RayHit hit = new RayHit();
+        if (!findIntersection(origin, direction, hit))
+            return null;
+
+        return new Point2D.Double(hit.x, hit.y);
+    }
+
+    @Override
+    public boolean findIntersection(Point origin, Vector2D direction, RayHit hit)
+    {
+        return findIntersection(origin.x, origin.y, direction.getX(), direction.getY(), hit);
+    }
+
+    /**
+     * Edges are numbered 0 for a-b, 1 for a-c and 2 for b-c, the same as Triangle's
+     */
+    @Override
+    public boolean findIntersection(double originX, double originY, double directionX, double directionY, RayHit hit)
+    {
+        if (!Triangle.findIntersection(x(0), y(0), x(1), y(1), x(2), y(2), originX, originY, directionX, directionY, hit))
+            return false;
+
+        hit.shape = this;
+        return true;
+    }
+
+    @Override
+    public boolean containsPoint(Point2D.Double point)
+    {
+        return Triangle.containsPoint(x(0), y(0), x(1), y(1), x(2), y(2), point.x, point.y);
+    }
+
+    // Box tests aren't on the soup's fast path, so they run on a temporary copy
+    @Override
+    public boolean intersectsBox(double minX, double minY, double maxX, double maxY)
+    {
+        return toTriangle().intersectsBox(minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public double sweepBox(double minX, double minY, double maxX, double maxY, double dx, double dy)
+    {
+        return toTriangle().sweepBox(minX, minY, maxX, maxY, dx, dy);
+    }
+
+    private int x(int corner)
+    {
+        return soup.getX(index, corner);
+    }
+
+    private int y(int corner)
+    {
+        return soup.getY(index, corner);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof SoupTriangle))
+            return false;
+
+        SoupTriangle other = (SoupTriangle) obj;
+        return soup == other.soup && index == other.index;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(soup) * 31 + index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "(" + x(0) + ", " + y(0) + ") " +
+                "(" + x(1) + ", " + y(1) + ") " +
+                "(" + x(2) + ", " + y(2) + ")";
+    }
+}
@@ -0,0 +1,25 @@
+package assignment;
+
+/**
+ * The first contact of a box moving along a straight line. Like RayHit, callers keep one record and hand it to
+ * every query.
+ */
+public class SweepHit
+{
+    public Shape shape;   // the first shape the box touches, null if it touches none
+    public double time;   // how far through its motion the box is at first contact, from 0 to 1
+
+    public SweepHit()
+    {
+        reset();
+    }
+
+    /**
+     * Clears the record back to a motion that touches nothing
+     */
+    public void reset()
+    {
+        shape = null;
+        time = Double.POSITIVE_INFINITY;
+    }
+}
@@ -7,12 +7,14 @@ import java.util.Objects;
 public class Triangle implements Shape
 {
     public Point a, b, c;
+    private EdgeFunctions edgeFunctions;
 
     public Triangle(Point a, Point b, Point c)
     {
         this.a = a;
         this.b = b;
         this.c = c;
+        this.edgeFunctions = new EdgeFunctions(a, b, c);
     }
 
     @Override
@@ -45,153 +47,319 @@ public class Triangle implements Shape
     @Override
     public Point2D.Double findIntersection (Point origin, Vector2D direction)
     {
-        Point2D.Double closestPoint = null;
-        Point2D.Double additionalPoint = new Point2D.Double(origin.getX() + direction.getX(), origin.getY() + direction.getY());
+        RayHit hit = new RayHit();
+        if (!findIntersection(origin, direction, hit))
+            return null;
 
-        Point2D.Double sampleIntersection = Shape.lineLineIntersection(origin.getX(), origin.getY(), additionalPoint.getX(), additionalPoint.getY(), a.getX(), a.getY(), b.getX(), b.getY());
+        return new Point2D.Double(hit.x, hit.y);
+    }
 
-        if (sampleIntersection == null)
-        {
-            double testA = (additionalPoint.getY() - origin.getY());
-            double testB = (additionalPoint.getX() - origin.getX());
-            double testC = (additionalPoint.getX() * origin.getY() - origin.getX() * additionalPoint.getY());
+    @Override
+    public boolean findIntersection (Point origin, Vector2D direction, RayHit hit)
+    {
+        return findIntersection(origin.x, origin.y, direction.getX(), direction.getY(), hit);
+    }
 
-            double triangleA = (a.getY() - b.getY());
-            double triangleB = (a.getX() - b.getX());
-            double triangleC = (a.getX() * b.getY() - b.getX() * a.getY());
+    /**
+     * Edges are numbered 0 for a-b, 1 for a-c and 2 for b-c
+     */
+    @Override
+    public boolean findIntersection (double originX, double originY, double directionX, double directionY, RayHit hit)
+    {
+        if (!findIntersection(a.x, a.y, b.x, b.y, c.x, c.y, originX, originY, directionX, directionY, hit))
+            return false;
 
-            if (triangleC != 0)
-            {
-                triangleA = triangleA * testC / triangleC;
-                triangleB = triangleB * testC / triangleC;
-            }
-            else if (testC != 0)
-            {
-                testA = testA * triangleC / testC;
-                testB = testB * triangleC / testC;
-            }
+        hit.shape = this;
+        return true;
+    }
 
-            if (Shape.isClose(testA, triangleA) && Shape.isClose(testB, triangleB))
-            {
-                if (BVH.distanceBetweenPoints(origin, a) < BVH.distanceBetweenPoints(origin, b))
-                    sampleIntersection = new Point2D.Double(a.getX(), a.getY());
-                else
-                    sampleIntersection = new Point2D.Double(b.getX(), b.getY());
-            }
-        }
+    /**
+     * Same as findIntersection(double, double, double, double, RayHit) for a triangle given by its vertex coordinates.
+     * Everything in the hit but the shape is filled in, that is left to the caller.
+     */
+    static boolean findIntersection (int ax, int ay, int bx, int by, int cx, int cy, double originX, double originY, double directionX, double directionY, RayHit hit)
+    {
+        double closest = Double.POSITIVE_INFINITY;
+        int closestEdge = -1;
 
-        if (sampleIntersection != null)
+        for (int edge = 0; edge < 3; edge++)
         {
-            if (Shape.isCloseOrGreater(sampleIntersection.getX(), Math.min(a.getX(), b.getX())) && Shape.isCloseOrGreater(Math.max(a.getX(), b.getX()), sampleIntersection.getX()) && Shape.isCloseOrGreater(sampleIntersection.getY(), Math.min(a.getY(), b.getY())) && Shape.isCloseOrGreater(Math.max(a.getY(), b.getY()), sampleIntersection.getY()))
+            double t = edge == 0 ? findRayEdgeCrossing(originX, originY, directionX, directionY, ax, ay, bx, by)
+                    : edge == 1 ? findRayEdgeCrossing(originX, originY, directionX, directionY, ax, ay, cx, cy)
+                    : findRayEdgeCrossing(originX, originY, directionX, directionY, bx, by, cx, cy);
+
+            if (t < closest)
             {
-                if (((Shape.isCloseOrGreater(sampleIntersection.getX() , origin.getX()) && Shape.isCloseOrGreater(direction.getX(), 0)) || (Shape.isCloseOrGreater(origin.getX(), sampleIntersection.getX()) && Shape.isCloseOrGreater(0, direction.getX()))) && ((Shape.isCloseOrGreater(sampleIntersection.getY(), origin.getY()) && Shape.isCloseOrGreater(direction.getY(), 0)) || (Shape.isCloseOrGreater(origin.getY(), sampleIntersection.getY()) && Shape.isCloseOrGreater(0, direction.getY()))))
-                {
-                    closestPoint = sampleIntersection;
-                }
+                closest = t;
+                closestEdge = edge;
             }
         }
 
-        sampleIntersection = Shape.lineLineIntersection(origin.getX(), origin.getY(), additionalPoint.getX(), additionalPoint.getY(), a.getX(), a.getY(), c.getX(), c.getY());
-
-        if (sampleIntersection == null)
-        {
-            double testA = (additionalPoint.getY() - origin.getY());
-            double testB = (additionalPoint.getX() - origin.getX());
-            double testC = (additionalPoint.getX() * origin.getY() - origin.getX() * additionalPoint.getY());
+        if (closestEdge == -1)
+            return false;
 
-            double triangleA = (a.getY() - c.getY());
-            double triangleB = (a.getX() - c.getX());
-            double triangleC = (a.getX() * c.getY() - c.getX() * a.getY());
+        hit.distance = closest * Math.sqrt(directionX * directionX + directionY * directionY);
+        hit.x = originX + closest * directionX;
+        hit.y = originY + closest * directionY;
+        hit.edge = closestEdge;
+        return true;
+    }
 
-            if (triangleC != 0)
-            {
-                triangleA = triangleA * testC / triangleC;
-                triangleB = triangleB * testC / triangleC;
-            }
-            else if (testC != 0)
-            {
-                testA = testA * triangleC / testC;
-                testB = testB * triangleC / testC;
-            }
+    /**
+     * Finds how far along a ray it first reaches the triangle's outline, without allocating anything
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @return              the smallest t at which origin + t * direction lies on an edge,
+     *                      Double.POSITIVE_INFINITY if the ray misses the triangle
+     */
+    public double findIntersectionParameter (double originX, double originY, double directionX, double directionY)
+    {
+        return Math.min(findRayEdgeCrossing(originX, originY, directionX, directionY, a.x, a.y, b.x, b.y),
+                Math.min(findRayEdgeCrossing(originX, originY, directionX, directionY, a.x, a.y, c.x, c.y),
+                        findRayEdgeCrossing(originX, originY, directionX, directionY, b.x, b.y, c.x, c.y)));
+    }
 
-            if (Shape.isClose(testA, triangleA) && Shape.isClose(testB, triangleB))
-            {
-                if (BVH.distanceBetweenPoints(origin, a) < BVH.distanceBetweenPoints(origin, c))
-                    sampleIntersection = new Point2D.Double(a.getX(), a.getY());
-                else
-                    sampleIntersection = new Point2D.Double(c.getX(), c.getY());
-            }
-        }
+    /**
+     * Finds where a ray crosses the edge from p to q. A ray running along the edge hits whichever end is nearer the origin.
+     *
+     * @return t at the crossing, Double.POSITIVE_INFINITY if the ray doesn't cross the edge
+     */
+    private static double findRayEdgeCrossing(double originX, double originY, double directionX, double directionY, double px, double py, double qx, double qy)
+    {
+        return findCrossing(originX, originY, directionX, directionY, px, py, qx, qy, Double.POSITIVE_INFINITY, Shape.EPSILON, true);
+    }
 
-        if (sampleIntersection != null)
+    /**
+     * Finds where a point moving from origin along direction crosses the segment from p to q by solving
+     * origin + t * direction = p + s * (q - p) with cross products. Rays and swept boxes both go through here.
+     *
+     * @param maxT          the largest t that counts, Double.POSITIVE_INFINITY for a ray and 1 for a single move
+     * @param slack         how far t and s may fall outside their ranges and still count, for rounding.
+     *                      A crossing up to slack behind the origin is reported at 0.
+     * @param alongEdge     whether moving along the segment meets whichever end is nearer the origin. Otherwise
+     *                      it never crosses, for callers that catch such touches at a neighbouring segment instead.
+     * @return              t at the crossing, Double.POSITIVE_INFINITY if it doesn't cross the segment
+     */
+    private static double findCrossing(double originX, double originY, double directionX, double directionY, double px, double py, double qx, double qy,
+                                       double maxT, double slack, boolean alongEdge)
+    {
+        double edgeX = qx - px;
+        double edgeY = qy - py;
+        double offsetX = px - originX;
+        double offsetY = py - originY;
+        double denominator = directionX * edgeY - directionY * edgeX;
+        double offsetCrossDirection = offsetX * directionY - offsetY * directionX;
+
+        if (denominator == 0)
         {
-            if (Shape.isCloseOrGreater(sampleIntersection.getX(), Math.min(a.getX(), c.getX())) && Shape.isCloseOrGreater(Math.max(a.getX(), c.getX()), sampleIntersection.getX()) && Shape.isCloseOrGreater(sampleIntersection.getY(), Math.min(a.getY(), c.getY())) && Shape.isCloseOrGreater(Math.max(a.getY(), c.getY()), sampleIntersection.getY()))
-            {
-                if (((Shape.isCloseOrGreater(sampleIntersection.getX() , origin.getX()) && Shape.isCloseOrGreater(direction.getX(), 0)) || (Shape.isCloseOrGreater(origin.getX(), sampleIntersection.getX()) && Shape.isCloseOrGreater(0, direction.getX()))) && ((Shape.isCloseOrGreater(sampleIntersection.getY(), origin.getY()) && Shape.isCloseOrGreater(direction.getY(), 0)) || (Shape.isCloseOrGreater(origin.getY(), sampleIntersection.getY()) && Shape.isCloseOrGreater(0, direction.getY()))))
-                {
-                    if (closestPoint == null || BVH.distanceBetweenPoints(origin, sampleIntersection) < BVH.distanceBetweenPoints(origin, closestPoint))
-                        closestPoint = sampleIntersection;
-                }
-            }
+            double directionLengthSquared = directionX * directionX + directionY * directionY;
+            if (!alongEdge || offsetCrossDirection != 0 || directionLengthSquared == 0)
+                return Double.POSITIVE_INFINITY; // parallel but not on the same line, or no direction at all
+
+            double tP = (offsetX * directionX + offsetY * directionY) / directionLengthSquared;
+            double tQ = ((qx - originX) * directionX + (qy - originY) * directionY) / directionLengthSquared;
+            double nearer = Math.abs(tP) < Math.abs(tQ) ? tP : tQ;
+            return nearer >= -slack && nearer <= maxT + slack ? Math.max(nearer, 0) : Double.POSITIVE_INFINITY;
         }
 
-        sampleIntersection = Shape.lineLineIntersection(origin.getX(), origin.getY(), additionalPoint.getX(), additionalPoint.getY(), b.getX(), b.getY(), c.getX(), c.getY());
+        double t = (offsetX * edgeY - offsetY * edgeX) / denominator;
+        double s = offsetCrossDirection / denominator;
+        if (t < -slack || t > maxT + slack || s < -slack || s > 1 + slack)
+            return Double.POSITIVE_INFINITY;
 
-        if (sampleIntersection == null)
-        {
-            double testA = (additionalPoint.getY() - origin.getY());
-            double testB = (additionalPoint.getX() - origin.getX());
-            double testC = (additionalPoint.getX() * origin.getY() - origin.getX() * additionalPoint.getY());
+        return Math.max(t, 0);
+    }
 
-            double triangleA = (b.getY() - c.getY());
-            double triangleB = (b.getX() - c.getX());
-            double triangleC = (b.getX() * c.getY() - c.getX() * b.getY());
+    /**
+     * Tests the point against the three edge functions cached for the current vertices, rebuilding them first if any
+     * vertex has moved since they were computed
+     */
+    @Override
+    public boolean containsPoint(Point2D.Double point)
+    {
+        EdgeFunctions functions = edgeFunctions;
+        if (functions == null || !functions.matches(a, b, c))
+            edgeFunctions = functions = new EdgeFunctions(a, b, c);
 
-            if (triangleC != 0)
-            {
-                triangleA = triangleA * testC / triangleC;
-                triangleB = triangleB * testC / triangleC;
-            }
-            else if (testC != 0)
-            {
-                testA = testA * triangleC / testC;
-                testB = testB * triangleC / testC;
-            }
+        if (functions.degenerate)
+            return containsPointByArea(a.x, a.y, b.x, b.y, c.x, c.y, point.x, point.y);
 
-            if (Shape.isClose(testA, triangleA) && Shape.isClose(testB, triangleB))
-            {
-                if (BVH.distanceBetweenPoints(origin, b) < BVH.distanceBetweenPoints(origin, c))
-                    sampleIntersection = new Point2D.Double(b.getX(), b.getY());
-                else
-                    sampleIntersection = new Point2D.Double(c.getX(), c.getY());
-            }
+        return functions.contains(point.x, point.y);
+    }
+
+    /**
+     * Same as containsPoint(Point2D.Double) for a triangle given by its vertex coordinates, working the edge
+     * functions out on the spot instead of caching them
+     */
+    static boolean containsPoint (int ax, int ay, int bx, int by, int cx, int cy, double x, double y)
+    {
+        double orientation = Math.signum((double) (bx - ax) * (cy - ay) - (double) (by - ay) * (cx - ax));
+        if (orientation == 0)
+            return containsPointByArea(ax, ay, bx, by, cx, cy, x, y);
+
+        return orientation * ((ay - by) * (x - ax) + (bx - ax) * (y - ay)) >= -Shape.EPSILON
+                & orientation * ((by - cy) * (x - bx) + (cx - bx) * (y - by)) >= -Shape.EPSILON
+                & orientation * ((cy - ay) * (x - cx) + (ax - cx) * (y - cy)) >= -Shape.EPSILON;
+    }
+
+    // A triangle with no area has no inside for the edge functions to agree on, so it falls back to comparing areas.
+    // The areas agree anywhere on the triangle's line, so the point also has to be within its bounds, the same as
+    // the trees' node bounds check would ask.
+    private static boolean containsPointByArea(double ax, double ay, double bx, double by, double cx, double cy, double x, double y)
+    {
+        if (x < Math.min(ax, Math.min(bx, cx)) - Shape.EPSILON || x > Math.max(ax, Math.max(bx, cx)) + Shape.EPSILON
+                || y < Math.min(ay, Math.min(by, cy)) - Shape.EPSILON || y > Math.max(ay, Math.max(by, cy)) + Shape.EPSILON)
+            return false;
+
+        double triangleArea = Math.abs((ax * (by - cy) + bx * (cy - ay) + cx * (ay - by)) / 2.0);
+
+        double triangle1Area = Math.abs((x * (by - cy) + bx * (cy - y) + cx * (y - by)) / 2.0);
+        double triangle2Area = Math.abs((ax * (y - cy) + x * (cy - ay) + cx * (ay - y)) / 2.0);
+        double triangle3Area = Math.abs((ax * (by - y) + bx * (y - ay) + x * (ay - by)) / 2.0);
+
+        return (Shape.isClose(triangleArea, (triangle1Area + triangle2Area + triangle3Area)));
+    }
+
+    /**
+     * The edge functions of a triangle, each oriented to be non-negative on the inside, along with the vertex
+     * coordinates they were computed from. The vertices are public and mutable, so the snapshot is how a triangle
+     * tells the cache is stale. Instances never change, so threads racing to rebuild the cache can't see one half built.
+     */
+    private static class EdgeFunctions
+    {
+        final int ax, ay, bx, by, cx, cy;
+        final double abX, abY, abConstant;
+        final double bcX, bcY, bcConstant;
+        final double caX, caY, caConstant;
+        final boolean degenerate;
+
+        EdgeFunctions(Point a, Point b, Point c)
+        {
+            ax = a.x;
+            ay = a.y;
+            bx = b.x;
+            by = b.y;
+            cx = c.x;
+            cy = c.y;
+
+            // twice the signed area, flipping the edges by its sign makes the inside positive for either winding
+            double orientation = Math.signum((double) (bx - ax) * (cy - ay) - (double) (by - ay) * (cx - ax));
+            degenerate = orientation == 0;
+
+            abX = orientation * (ay - by);
+            abY = orientation * (bx - ax);
+            abConstant = -(abX * ax + abY * ay);
+            bcX = orientation * (by - cy);
+            bcY = orientation * (cx - bx);
+            bcConstant = -(bcX * bx + bcY * by);
+            caX = orientation * (cy - ay);
+            caY = orientation * (ax - cx);
+            caConstant = -(caX * cx + caY * cy);
         }
 
-        if (sampleIntersection != null)
+        boolean matches(Point a, Point b, Point c)
         {
-            if (Shape.isCloseOrGreater(sampleIntersection.getX(), Math.min(b.getX(), c.getX())) && Shape.isCloseOrGreater(Math.max(b.getX(), c.getX()), sampleIntersection.getX()) && Shape.isCloseOrGreater(sampleIntersection.getY(), Math.min(b.getY(), c.getY())) && Shape.isCloseOrGreater(Math.max(b.getY(), c.getY()), sampleIntersection.getY()))
-            {
-                if (((Shape.isCloseOrGreater(sampleIntersection.getX() , origin.getX()) && Shape.isCloseOrGreater(direction.getX(), 0)) || (Shape.isCloseOrGreater(origin.getX(), sampleIntersection.getX()) && Shape.isCloseOrGreater(0, direction.getX()))) && ((Shape.isCloseOrGreater(sampleIntersection.getY(), origin.getY()) && Shape.isCloseOrGreater(direction.getY(), 0)) || (Shape.isCloseOrGreater(origin.getY(), sampleIntersection.getY()) && Shape.isCloseOrGreater(0, direction.getY()))))
-                {
-                    if (closestPoint == null || BVH.distanceBetweenPoints(origin, sampleIntersection) < BVH.distanceBetweenPoints(origin, closestPoint))
-                        closestPoint = sampleIntersection;
-                }
-            }
+            return a.x == ax && a.y == ay && b.x == bx && b.y == by && c.x == cx && c.y == cy;
         }
 
-        return closestPoint;
+        // Points on an edge count as inside, with the same tolerance the area comparison had. The edges are combined
+        // with & rather than && because which edge rejects a probe is too random for the branches to predict.
+        boolean contains(double x, double y)
+        {
+            return abX * x + abY * y + abConstant >= -Shape.EPSILON
+                    & bcX * x + bcY * y + bcConstant >= -Shape.EPSILON
+                    & caX * x + caY * y + caConstant >= -Shape.EPSILON;
+        }
     }
 
+    /**
+     * Separating axis test: the triangle and the box overlap unless the two box axes or one of the three edge
+     * normals separates them.
+     */
     @Override
-    public boolean containsPoint(Point2D.Double point)
+    public boolean intersectsBox(double minX, double minY, double maxX, double maxY)
     {
-        double triangleArea = Math.abs((a.getX() * (b.getY() - c.getY()) + b.getX() * (c.getY() - a.getY()) + c.getX() * (a.getY() - b.getY())) / 2.0);
+        if (Math.max(a.x, Math.max(b.x, c.x)) < minX || Math.min(a.x, Math.min(b.x, c.x)) > maxX)
+            return false;
 
-        double triangle1Area = Math.abs((point.getX() * (b.getY() - c.getY()) + b.getX() * (c.getY() - point.getY()) + c.getX() * (point.getY() - b.getY())) / 2.0);
-        double triangle2Area = Math.abs((a.getX() * (point.getY() - c.getY()) + point.getX() * (c.getY() - a.getY()) + c.getX() * (a.getY() - point.getY())) / 2.0);
-        double triangle3Area = Math.abs((a.getX() * (b.getY() - point.getY()) + b.getX() * (point.getY() - a.getY()) + point.getX() * (a.getY() - b.getY())) / 2.0);
+        if (Math.max(a.y, Math.max(b.y, c.y)) < minY || Math.min(a.y, Math.min(b.y, c.y)) > maxY)
+            return false;
 
-        return (Shape.isClose(triangleArea, (triangle1Area + triangle2Area + triangle3Area)));
+        double centerX = (minX + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
+        double halfWidth = (maxX - minX) / 2;
+        double halfHeight = (maxY - minY) / 2;
+
+        return !separatesBox(a, b, c, centerX, centerY, halfWidth, halfHeight)
+                && !separatesBox(a, c, b, centerX, centerY, halfWidth, halfHeight)
+                && !separatesBox(b, c, a, centerX, centerY, halfWidth, halfHeight);
+    }
+
+    // Whether the normal of the edge p-q separates the triangle (whose third vertex is r) from the box
+    private static boolean separatesBox(Point p, Point q, Point r, double centerX, double centerY, double halfWidth, double halfHeight)
+    {
+        double normalX = p.y - q.y;
+        double normalY = q.x - p.x;
+
+        // p and q project to the same value, r gives the other end of the triangle's interval
+        double edgeProjection = normalX * p.x + normalY * p.y;
+        double thirdProjection = normalX * r.x + normalY * r.y;
+        double triangleMin = Math.min(edgeProjection, thirdProjection);
+        double triangleMax = Math.max(edgeProjection, thirdProjection);
+
+        double boxCenter = normalX * centerX + normalY * centerY;
+        double boxRadius = Math.abs(normalX) * halfWidth + Math.abs(normalY) * halfHeight;
+
+        return boxCenter + boxRadius < triangleMin || boxCenter - boxRadius > triangleMax;
+    }
+
+    /**
+     * Two convex shapes first touch where a corner of one meets an edge of the other, so this tries the box's
+     * corners moving forward into the triangle's edges and the triangle's vertices moving backward into the box's edges.
+     */
+    @Override
+    public double sweepBox(double minX, double minY, double maxX, double maxY, double dx, double dy)
+    {
+        if (intersectsBox(minX, minY, maxX, maxY))
+            return 0;
+
+        double earliest = Math.min(
+                Math.min(sweepPointIntoEdges(minX, minY, dx, dy), sweepPointIntoEdges(maxX, minY, dx, dy)),
+                Math.min(sweepPointIntoEdges(minX, maxY, dx, dy), sweepPointIntoEdges(maxX, maxY, dx, dy)));
+
+        earliest = Math.min(earliest, sweepPointIntoBox(a, minX, minY, maxX, maxY, dx, dy));
+        earliest = Math.min(earliest, sweepPointIntoBox(b, minX, minY, maxX, maxY, dx, dy));
+        earliest = Math.min(earliest, sweepPointIntoBox(c, minX, minY, maxX, maxY, dx, dy));
+
+        return earliest;
+    }
+
+    private double sweepPointIntoEdges(double x, double y, double dx, double dy)
+    {
+        return Math.min(findSegmentCrossing(x, y, dx, dy, a.x, a.y, b.x, b.y),
+                Math.min(findSegmentCrossing(x, y, dx, dy, a.x, a.y, c.x, c.y), findSegmentCrossing(x, y, dx, dy, b.x, b.y, c.x, c.y)));
+    }
+
+    // A vertex moving backward into the box meets it when the box moving forward would meet the vertex
+    private static double sweepPointIntoBox(Point vertex, double minX, double minY, double maxX, double maxY, double dx, double dy)
+    {
+        return Math.min(
+                Math.min(findSegmentCrossing(vertex.x, vertex.y, -dx, -dy, minX, minY, maxX, minY), findSegmentCrossing(vertex.x, vertex.y, -dx, -dy, maxX, minY, maxX, maxY)),
+                Math.min(findSegmentCrossing(vertex.x, vertex.y, -dx, -dy, maxX, maxY, minX, maxY), findSegmentCrossing(vertex.x, vertex.y, -dx, -dy, minX, maxY, minX, minY)));
+    }
+
+    /**
+     * Finds when a point moving from (x, y) by (dx, dy) crosses the segment from p to q. Moving parallel to the
+     * segment never crosses it, since any touch shows up at one of its endpoints instead.
+     *
+     * @return the fraction of the motion, from 0 to 1, at the crossing. Double.POSITIVE_INFINITY if it doesn't cross
+     */
+    private static double findSegmentCrossing(double x, double y, double dx, double dy, double px, double py, double qx, double qy)
+    {
+        return findCrossing(x, y, dx, dy, px, py, qx, qy, 1, 0, false);
     }
 
     @Override
@@ -0,0 +1,125 @@
+package assignment;
+
+/**
+ * A large, fixed set of triangles stored as flat int arrays instead of Triangle and Point objects.
+ *
+ * Triangles either each have their own three vertices, or index into a shared vertex buffer the way a mesh does.
+ * A triangle is named by its index in the soup, and getTriangle() wraps an index in a lightweight Shape for the
+ * places that need one, such as query results. The soup keeps its own copies of the arrays it's built from, so
+ * changing them afterwards can't move triangles under a tree built over it.
+ */
+public class TriangleSoup
+{
+    private final int[] vertices;  // x, y for each vertex
+    private final int[] indices;   // three vertex numbers for each triangle, null when each triangle has its own three
+    private final int size;
+
+    /**
+     * @param coordinates   ax, ay, bx, by, cx, cy for each triangle in turn
+     */
+    public TriangleSoup(int[] coordinates)
+    {
+        if (coordinates.length % 6 != 0)
+        {
+            throw new IllegalArgumentException("Triangle coordinates must come in groups of 6.");
+        }
+        this.vertices = coordinates.clone();
+        this.indices = null;
+        this.size = coordinates.length / 6;
+    }
+
+    /**
+     * @param vertices      x, y for each vertex in turn
+     * @param indices       the numbers of a triangle's three vertices for each triangle in turn
+     */
+    public TriangleSoup(int[] vertices, int[] indices)
+    {
+        vertices = vertices.clone();
+        indices = indices.clone();
+        if (vertices.length % 2 != 0)
+        {
+            throw new IllegalArgumentException("Vertex coordinates must come in pairs.");
+        }
+        if (indices.length % 3 != 0)
+        {
+            throw new IllegalArgumentException("Vertex indices must come in groups of 3.");
+        }
+        for (int index : indices)
+        {
+            if (index < 0 || index >= vertices.length / 2)
+            {
+                throw new IllegalArgumentException("Vertex index " + index + " is out of range.");
+            }
+        }
+        this.vertices = vertices;
+        this.indices = indices;
+        this.size = indices.length / 3;
+    }
+
+    /**
+     * @return the number of triangles in the soup
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param triangle      the triangle's index in the soup
+     * @param corner        0, 1 or 2 for the triangle's a, b or c
+     * @return              the x coordinate of that corner
+     */
+    public int getX(int triangle, int corner)
+    {
+        return vertices[vertexOffset(triangle, corner)];
+    }
+
+    /**
+     * @param triangle      the triangle's index in the soup
+     * @param corner        0, 1 or 2 for the triangle's a, b or c
+     * @return              the y coordinate of that corner
+     */
+    public int getY(int triangle, int corner)
+    {
+        return vertices[vertexOffset(triangle, corner) + 1];
+    }
+
+    /**
+     * @param triangle      the triangle's index in the soup
+     * @return              a view of the triangle that reads its vertices from the soup
+     */
+    public SoupTriangle getTriangle(int triangle)
+    {
+        if (triangle < 0 || triangle >= size)
+        {
+            throw new IllegalArgumentException("Triangle " + triangle + " is out of range.");
+        }
+        return new SoupTriangle(this, triangle);
+    }
+
+    /**
+     * @return the bytes held by the vertex and index arrays
+     */
+    public long getBytes()
+    {
+        return 4L * (vertices.length + (indices == null ? 0 : indices.length));
+    }
+
+    /**
+     * Copies ax, ay, bx, by, cx, cy of a triangle into an array
+     */
+    void copyCoordinates(int triangle, int[] target, int offset)
+    {
+        for (int corner = 0; corner < 3; corner++)
+        {
+            int vertex = vertexOffset(triangle, corner);
+            target[offset + corner * 2] = vertices[vertex];
+            target[offset + corner * 2 + 1] = vertices[vertex + 1];
+        }
+    }
+
+    private int vertexOffset(int triangle, int corner)
+    {
+        return indices == null ? triangle * 6 + corner * 2 : indices[triangle * 3 + corner] * 2;
+    }
+}
@@ -0,0 +1,254 @@
+package assignment;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A read-only tree over a TriangleSoup, laid out in primitive arrays like FrozenBVH but naming triangles by their
+ * index in the soup instead of holding Shapes. Built by BoundedVolumeHierarchy.buildFrozen().
+ *
+ * The tree keeps its own copy of each triangle's coordinates in leaf order, so a leaf's triangles sit next to each
+ * other in memory and leaf tests read straight through them. Shapes are only made for the results handed back, and
+ * queries reuse one traversal stack per thread like FrozenBVH's.
+ */
+public class TriangleSoupBVH
+{
+    private final TriangleSoup soup;
+    private final int[] bounds;       // minX, minY, maxX, maxY for each node
+    private final int[] rightChild;   // index of the right child, -1 for leaves
+    private final int[] firstShape;   // start of a leaf's range in triangles
+    private final int[] shapeCount;   // size of a leaf's range in triangles, 0 for internal nodes
+    private final int[] triangles;    // index in the soup of each triangle, in leaf order
+    private final int[] coordinates;  // ax, ay, bx, by, cx, cy of each triangle, in the same order
+    private final int stackSize;
+
+    TriangleSoupBVH(TriangleSoup soup, int[] bounds, int[] rightChild, int[] firstShape, int[] shapeCount, int[] triangles, int height) {
+        this.soup = soup;
+        this.bounds = bounds;
+        this.rightChild = rightChild;
+        this.firstShape = firstShape;
+        this.shapeCount = shapeCount;
+        this.triangles = triangles;
+        this.coordinates = new int[triangles.length * 6];
+        for (int i = 0; i < triangles.length; i++) {
+            soup.copyCoordinates(triangles[i], coordinates, i * 6);
+        }
+        this.stackSize = height + 2;
+    }
+
+    /**
+     * @return the soup the tree was built over
+     */
+    public TriangleSoup getSoup() {
+        return soup;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return rightChild.length;
+    }
+
+    /**
+     * @return the bytes held by the node arrays
+     */
+    public long getNodeBytes() {
+        return 4L * (bounds.length + rightChild.length + firstShape.length + shapeCount.length);
+    }
+
+    /**
+     * @return the bytes held by the node arrays and the leaf-ordered triangles, not counting the soup
+     */
+    public long getBytes() {
+        return getNodeBytes() + 4L * (triangles.length + coordinates.length);
+    }
+
+    /**
+     * Finds triangles in the tree where a point would be inside the triangle
+     *
+     * @param point   the point to detect collisions against
+     * @return        a set of views of the triangles that contain the passed in point, empty if none do
+     */
+    public Set<Shape> findCollision(Point2D.Double point) {
+        Set<Shape> result = new HashSet<>();
+        findCollision(point, result::add);
+        return result;
+    }
+
+    /**
+     * Passes a view of every triangle in the tree where a point would be inside the triangle to a consumer
+     *
+     * @param point     the point to detect collisions against
+     * @param consumer  called once for each triangle that contains the passed in point
+     */
+    public void findCollision(Point2D.Double point, Consumer<Shape> consumer) {
+        findCollision(point.getX(), point.getY(), triangle -> consumer.accept(soup.getTriangle(triangle)));
+    }
+
+    /**
+     * Passes the soup index of every triangle in the tree where a point would be inside the triangle to a consumer,
+     * without allocating anything once the thread's reused traversal stack has grown to the tree's height
+     *
+     * @param x         the x coordinate of the point to detect collisions against
+     * @param y         the y coordinate of the point to detect collisions against
+     * @param consumer  called once with the index of each triangle that contains the point
+     */
+    public void findCollision(double x, double y, IntConsumer consumer) {
+        if (triangles.length == 0) {
+            return;
+        }
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                int base = node * 4;
+                if (x < bounds[base] || y < bounds[base + 1] || x > bounds[base + 2] || y > bounds[base + 3]) {
+                    continue;
+                }
+                if (shapeCount[node] > 0) {
+                    for (int i = firstShape[node]; i < firstShape[node] + shapeCount[node]; i++) {
+                        int c = i * 6;
+                        if (Triangle.containsPoint(coordinates[c], coordinates[c + 1], coordinates[c + 2], coordinates[c + 3], coordinates[c + 4], coordinates[c + 5], x, y)) {
+                            consumer.accept(triangles[i]);
+                        }
+                    }
+                    continue;
+                }
+                stack[top++] = rightChild[node];
+                stack[top++] = node + 1;
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Finds the first triangle that a ray would hit
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @return              a view of the triangle that the ray first intersects with, null if none
+     */
+    public Shape intersectRay(Point2D.Double origin, Vector2D direction) {
+        RayHit hit = new RayHit();
+        return intersectRay(origin, direction, hit) ? hit.shape : null;
+    }
+
+    /**
+     * Finds where a ray first hits a triangle. Like the other trees, the triangles are tested from the
+     * whole-number origin and distances are measured from the exact one.
+     *
+     * @param origin        the starting position of the ray
+     * @param direction     a vector that represents the direction of the ray
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any triangle
+     */
+    public boolean intersectRay(Point2D.Double origin, Vector2D direction, RayHit hit) {
+        return castRay(origin.getX(), origin.getY(), (int) origin.getX(), (int) origin.getY(), direction.getX(), direction.getY(), hit);
+    }
+
+    /**
+     * Finds where a ray first hits a triangle, testing the triangles from the exact origin. Like the point
+     * query it reuses the thread's traversal stack, so the only allocation is the view of the triangle hit.
+     *
+     * @param originX       the x coordinate the ray starts at
+     * @param originY       the y coordinate the ray starts at
+     * @param directionX    the x component of the ray's direction
+     * @param directionY    the y component of the ray's direction
+     * @param hit           a caller-owned record that is reset, then filled in with the nearest hit
+     * @return              whether the ray intersects any triangle
+     */
+    public boolean intersectRay(double originX, double originY, double directionX, double directionY, RayHit hit) {
+        return castRay(originX, originY, originX, originY, directionX, directionY, hit);
+    }
+
+    // Boxes and triangles are tested from (testX, testY), hit distances are measured from (originX, originY)
+    private boolean castRay(double originX, double originY, double testX, double testY, double directionX, double directionY, RayHit hit) {
+        hit.reset();
+        if (triangles.length == 0) {
+            return false;
+        }
+        double inverseDirX = 1 / directionX;
+        double inverseDirY = 1 / directionY;
+        double directionLength = Math.hypot(directionX, directionY);
+        // box distances from the test origin can be short by this much
+        double originOffset = Point2D.distance(originX, originY, testX, testY);
+        RayHit candidate = RayHit.candidate();
+        int hitTriangle = -1;
+
+        // nodes are pushed with the distance at which the ray enters them, nearer child on top
+        IndexStack slots = IndexStack.acquire(stackSize);
+        try {
+            int[] stack = slots.nodes;
+            double[] stackEntry = slots.entries;
+            int top = 0;
+            stack[top] = 0;
+            stackEntry[top++] = findEntryDistance(0, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+            while (top > 0) {
+                int node = stack[--top];
+                if (stackEntry[top] >= hit.distance) {
+                    continue; // missed, or starts behind a hit found since it was pushed
+                }
+                if (shapeCount[node] > 0) {
+                    for (int i = firstShape[node]; i < firstShape[node] + shapeCount[node]; i++) {
+                        int c = i * 6;
+                        if (Triangle.findIntersection(coordinates[c], coordinates[c + 1], coordinates[c + 2], coordinates[c + 3], coordinates[c + 4], coordinates[c + 5],
+                                testX, testY, directionX, directionY, candidate)) {
+                            if (originOffset != 0) {
+                                candidate.distance = Point2D.distance(originX, originY, candidate.x, candidate.y);
+                            }
+                            if (candidate.distance < hit.distance) {
+                                hit.set(candidate);
+                                hitTriangle = triangles[i];
+                            }
+                        }
+                    }
+                    continue;
+                }
+
+                int near = node + 1;
+                int far = rightChild[node];
+                double nearEntry = findEntryDistance(near, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                double farEntry = findEntryDistance(far, testX, testY, inverseDirX, inverseDirY, directionLength, originOffset);
+                if (farEntry < nearEntry) {
+                    int temp = near;
+                    near = far;
+                    far = temp;
+                    double tempEntry = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = tempEntry;
+                }
+                if (farEntry < hit.distance) {
+                    stack[top] = far;
+                    stackEntry[top++] = farEntry;
+                }
+                if (nearEntry < hit.distance) {
+                    stack[top] = near;
+                    stackEntry[top++] = nearEntry;
+                }
+            }
+        } finally {
+            slots.release();
+        }
+        // the view is only made for the triangle that won
+        hit.shape = hitTriangle == -1 ? null : soup.getTriangle(hitTriangle);
+        return hit.shape != null;
+    }
+
+    // Lower bound on the distance from the exact origin to any hit inside the node, infinite if the ray misses it
+    private double findEntryDistance(int node, double testX, double testY, double inverseDirX, double inverseDirY, double directionLength, double originOffset) {
+        int base = node * 4;
+        double entry = Rectangle.findRayEntry(bounds[base], bounds[base + 1], bounds[base + 2], bounds[base + 3], testX, testY, inverseDirX, inverseDirY);
+        if (entry == Double.POSITIVE_INFINITY) {
+            return entry;
+        }
+        return entry * directionLength - originOffset;
+    }
+}
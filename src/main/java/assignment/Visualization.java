@@ -2,10 +2,11 @@ package assignment;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
-import java.util.HashSet;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Random;
-import java.util.Set;
 
 public class Visualization
 {
@@ -13,10 +14,25 @@ public class Visualization
 
     private Point2D.Double virtualSquareCenter;
 
+    private final SweepHit sweepHit = new SweepHit(); // reused by every step moveSquare takes
+
+    private int rayDensity = 4;
+    private RayBatch rayBatch; // the rays drawGUI casts, rebuilt only when rayDensity changes
+    private int rayBatchDensity;
+
+    // drawn into on every frame instead of collecting points
+    private final BufferedImage frame = new BufferedImage(GUI_WIDTH, GUI_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    private final int[] framePixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+
     private static final int GUI_WIDTH = 400;
     private static final int GUI_HEIGHT = 400;
     private static final int SQUARE_SIZE = 21;
     private static final int STEP_PIXELS = 5;
+    private static final double CONTACT_GAP = 1E-3; // how far short of a triangle a blocked step stops
+    private static final int LIT_PIXEL = 0xFF000000; // opaque black, everything else stays transparent
+    // hits land on a pixel only less than this far from the center along either axis, with a pixel's slack for the
+    // truncation to the pixel and one more for rounding
+    private static final double VISIBLE_REACH = GUI_WIDTH / 2.0 + 2;
 
 
     /**
@@ -40,6 +56,17 @@ public class Visualization
         this.boundingVolumeHierarchy = boundingVolumeHierarchy;
     }
 
+    /**
+     * @param rayDensity        the spacing in GUI pixels between the rays drawGUI casts, 1 casts a ray at every pixel
+     */
+    public void setRayDensity(int rayDensity)
+    {
+        if (rayDensity < 1) {
+            throw new IllegalArgumentException("Ray density must be at least 1.");
+        }
+        this.rayDensity = rayDensity;
+    }
+
     /**
      * Moves the square within the environment if it's able to move in the given direction
      *
@@ -53,23 +80,24 @@ public class Visualization
             return false;
         }
 
-        Point2D.Double potentialNewCenter = new Point2D.Double(virtualSquareCenter.getX(), virtualSquareCenter.getY());
+        double dx = 0;
+        double dy = 0;
 
         switch (Character.toUpperCase(keyPressed)) {
             case 'W': // Move up
-                potentialNewCenter.y += STEP_PIXELS;
+                dy = STEP_PIXELS;
                 System.out.println("up");
                 break;
             case 'S': // Move down
-                potentialNewCenter.y -= STEP_PIXELS;
+                dy = -STEP_PIXELS;
                 System.out.println("down");
                 break;
             case 'A': // Move left
-                potentialNewCenter.x -= STEP_PIXELS;
+                dx = -STEP_PIXELS;
                 System.out.println("left");
                 break;
             case 'D': // Move right
-                potentialNewCenter.x += STEP_PIXELS;
+                dx = STEP_PIXELS;
                 System.out.println("right");
                 break;
             default:
@@ -78,35 +106,61 @@ public class Visualization
 
         double halfSquareVirtual = SQUARE_SIZE / 2.0; // If 1 GUI pixel = 1 virtual unit
 
-        // Create the 4 corners of the potential new virtual square bounding box
-        Point2D.Double topLeft = new Point2D.Double(potentialNewCenter.x - halfSquareVirtual, potentialNewCenter.y + halfSquareVirtual);
-        Point2D.Double topRight = new Point2D.Double(potentialNewCenter.x + halfSquareVirtual, potentialNewCenter.y + halfSquareVirtual);
-        Point2D.Double bottomLeft = new Point2D.Double(potentialNewCenter.x - halfSquareVirtual, potentialNewCenter.y - halfSquareVirtual);
-        Point2D.Double bottomRight = new Point2D.Double(potentialNewCenter.x + halfSquareVirtual, potentialNewCenter.y - halfSquareVirtual);
-
-        // Check if any of these points would be inside a triangle
-        // This is a simplified collision check using multiple point probes.
-        // A more robust solution might require a BVH method that checks for intersection with a bounding box directly.
-        Set<Shape> collisions;
-        collisions = boundingVolumeHierarchy.findCollision(topLeft);
-        if (!collisions.isEmpty()) return false;
-        collisions = boundingVolumeHierarchy.findCollision(topRight);
-        if (!collisions.isEmpty()) return false;
-        collisions = boundingVolumeHierarchy.findCollision(bottomLeft);
-        if (!collisions.isEmpty()) return false;
-        collisions = boundingVolumeHierarchy.findCollision(bottomRight);
-        if (!collisions.isEmpty()) return false;
-        collisions = boundingVolumeHierarchy.findCollision(potentialNewCenter); // Check center too
-        if (!collisions.isEmpty()) return false;
-
+        // The current virtual square, swept along the step so it stops at the first triangle however long the step is
+        Rectangle2D.Double squareBounds = new Rectangle2D.Double(virtualSquareCenter.x - halfSquareVirtual, virtualSquareCenter.y - halfSquareVirtual, SQUARE_SIZE, SQUARE_SIZE);
+        double fraction = 1;
+        if (boundingVolumeHierarchy.sweepBox(squareBounds, dx, dy, sweepHit)) {
+            if (sweepHit.time == 0) {
+                // already overlapping, so only allow the step if it lands somewhere clear
+                squareBounds.x += dx;
+                squareBounds.y += dy;
+                if (boundingVolumeHierarchy.hasOverlap(squareBounds)) return false;
+            } else {
+                // stop just short of contact so the next sweep doesn't start touching
+                fraction = Math.max(0, sweepHit.time - CONTACT_GAP / STEP_PIXELS);
+                if (fraction == 0) return false;
+            }
+        }
 
         // If no collision:
-        this.virtualSquareCenter = potentialNewCenter; // Update position
+        this.virtualSquareCenter = new Point2D.Double(virtualSquareCenter.x + dx * fraction, virtualSquareCenter.y + dy * fraction); // Update position
         System.out.println(virtualSquareCenter);
         return true;
 
     }
 
+    /**
+     * Renders every pixel visible from the square in the center into a reusable image. Lit pixels are opaque
+     * black and the rest are transparent, so the whole frame can be drawn with a single drawImage call.
+     *
+     * @return              the frame, which is overwritten by the next call
+     */
+    public BufferedImage renderFrame()
+    {
+        Arrays.fill(framePixels, 0);
+
+        RayBatch batch = getRayBatch();
+        double centerX = virtualSquareCenter.getX();
+        double centerY = virtualSquareCenter.getY();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.originX[i] = centerX;
+            batch.originY[i] = centerY;
+        }
+        boundingVolumeHierarchy.intersectRayFan(batch);
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.hitShape[i] != null) {
+                // virtual to GUI coordinates, truncated to a pixel
+                int guiX = (int) ((batch.hitX[i] - centerX) + GUI_WIDTH / 2.0);
+                int guiY = (int) ((GUI_HEIGHT / 2.0) - (batch.hitY[i] - centerY));
+                if (guiX >= 0 && guiX < GUI_WIDTH && guiY >= 0 && guiY < GUI_HEIGHT) {
+                    framePixels[guiY * GUI_WIDTH + guiX] = LIT_PIXEL;
+                }
+            }
+        }
+        return frame;
+    }
+
     /**
      * Calculates all the pixels visible from the square in the center
      *
@@ -114,63 +168,59 @@ public class Visualization
      */
     public LinkedList<Point> drawGUI()
     {
-        Set<Point> pixelsToDisplay = new HashSet<>();
+        renderFrame();
 
-        Point2D.Double virtualSquareCenterDouble = new Point2D.Double(virtualSquareCenter.getX(), virtualSquareCenter.getY());
-        int rayDensity = 4;
-        for (int guiX = 0; guiX < GUI_WIDTH; guiX += rayDensity) {
-            for (int guiY = 0; guiY < GUI_HEIGHT; guiY += rayDensity) {
+        LinkedList<Point> pixelsToDisplay = new LinkedList<>();
+        for (int guiY = 0; guiY < GUI_HEIGHT; guiY++) {
+            for (int guiX = 0; guiX < GUI_WIDTH; guiX++) {
+                if (framePixels[guiY * GUI_WIDTH + guiX] == LIT_PIXEL) {
+                    pixelsToDisplay.add(new Point(guiX, guiY));
+                }
+            }
+        }
+        return pixelsToDisplay;
+    }
+
+    /**
+     * Rays aim from the square's center at every rayDensity-th GUI pixel outside the square. Their directions
+     * don't depend on where the square is, so they are only computed again when rayDensity changes.
+     *
+     * A hit past the edge of the GUI lights nothing, so each ray stops where it leaves the square VISIBLE_REACH
+     * around the center. The tree then never visits anything off screen.
+     */
+    private RayBatch getRayBatch()
+    {
+        if (rayBatch != null && rayBatchDensity == rayDensity) {
+            return rayBatch;
+        }
 
-                int squareGUIStartX = (GUI_WIDTH - SQUARE_SIZE) / 2; // 190
-                int squareGUIStartY = (GUI_HEIGHT - SQUARE_SIZE) / 2; // 190
-                int squareGUIEndX = squareGUIStartX + SQUARE_SIZE;   // 211 (exclusive)
-                int squareGUIEndY = squareGUIStartY + SQUARE_SIZE;   // 211 (exclusive)
+        int squareGUIStartX = (GUI_WIDTH - SQUARE_SIZE) / 2; // 190
+        int squareGUIStartY = (GUI_HEIGHT - SQUARE_SIZE) / 2; // 190
+        int squareGUIEndX = squareGUIStartX + SQUARE_SIZE;   // 211 (exclusive)
+        int squareGUIEndY = squareGUIStartY + SQUARE_SIZE;   // 211 (exclusive)
 
+        int columns = (GUI_WIDTH + rayDensity - 1) / rayDensity;
+        int rows = (GUI_HEIGHT + rayDensity - 1) / rayDensity;
+        RayBatch batch = new RayBatch(columns * rows);
+        int count = 0;
+        for (int guiX = 0; guiX < GUI_WIDTH; guiX += rayDensity) {
+            for (int guiY = 0; guiY < GUI_HEIGHT; guiY += rayDensity) {
                 if (guiX >= squareGUIStartX && guiX < squareGUIEndX &&
                         guiY >= squareGUIStartY && guiY < squareGUIEndY) {
                     continue;
                 }
-
-                Point2D.Double virtualTarget = GUItoVirtual(pointToPoint2D(new Point(guiX, guiY)));
-
-                double dirX = virtualTarget.x - virtualSquareCenterDouble.getX();
-                double dirY = virtualTarget.y - virtualSquareCenterDouble.getY();
-
-                Vector2D direction = new Vector2D(dirX, dirY);
-
-                Shape hitShape = boundingVolumeHierarchy.intersectRay(virtualSquareCenterDouble, direction);
-                if (hitShape != null) {
-                    Point2D.Double intersection = hitShape.findIntersection(point2DToPoint(virtualSquareCenter), direction);
-                    if (intersection != null) {
-                        Point guiPoint = point2DToPoint(virtualToGUI(intersection));
-                        if (guiPoint.x >= 0 && guiPoint.x < GUI_WIDTH && guiPoint.y >= 0 && guiPoint.y < GUI_HEIGHT) {
-                            pixelsToDisplay.add(guiPoint);
-                        }
-                    }
-                }
+                // the GUI pixel in virtual coordinates, minus the square's center
+                double dirX = guiX - GUI_WIDTH / 2.0;
+                double dirY = GUI_HEIGHT / 2.0 - guiY;
+                double maxDistance = VISIBLE_REACH / Math.max(Math.abs(dirX), Math.abs(dirY)) * Math.hypot(dirX, dirY);
+                batch.setRay(count++, 0, 0, dirX, dirY, maxDistance);
             }
         }
+        batch.setSize(count);
+        batch.indexByAngle();
 
-        return new LinkedList<>(pixelsToDisplay);
-    }
-
-    private Point2D.Double pointToPoint2D(Point point){
-        return new Point2D.Double(point.x, point.y);
-    }
-
-    private Point point2DToPoint(Point2D.Double point){
-        return new Point((int) point.x, (int) point.y);
-    }
-
-    private Point2D.Double virtualToGUI(Point2D.Double point) {
-        double guiX = (point.x - virtualSquareCenter.getX()) + GUI_WIDTH / 2.0;
-        double guiY = (GUI_HEIGHT / 2.0) - (point.y - virtualSquareCenter.getY());
-        return new Point2D.Double(guiX, guiY);
-    }
-
-    private Point2D.Double GUItoVirtual(Point2D.Double point) {
-        double virtualX = (point.x - GUI_WIDTH / 2.0) + virtualSquareCenter.getX();
-        double virtualY = (GUI_HEIGHT / 2.0 - point.y) + virtualSquareCenter.getY();
-        return new Point2D.Double(virtualX, virtualY);
+        rayBatch = batch;
+        rayBatchDensity = rayDensity;
+        return batch;
     }
 }
@@ -1,17 +1,32 @@
 import assignment.BVH;
 import assignment.BoundedVolumeHierarchy;
+import assignment.FrozenBVH;
+import assignment.QuantizedBVH;
+import assignment.RayBatch;
+import assignment.RayHit;
 import assignment.Rectangle;
 import assignment.Shape;
+import assignment.SoupTriangle;
+import assignment.SweepHit;
 import assignment.Triangle;
+import assignment.TriangleSoup;
+import assignment.TriangleSoupBVH;
 import assignment.Vector2D;
+import assignment.Visualization;
 import org.junit.jupiter.api.Test;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -273,6 +288,1197 @@ public class BVHTests {
         assertAVLInvariant(bvh);
     }
 
+    @Test
+    public void surfaceAreaSplitIsNoCostlierThanMedianOnClusteredScene() {
+        List<Triangle> shapes = generateClusteredTriangles(200, 42);
+
+        BoundedVolumeHierarchy median = new BoundedVolumeHierarchy();
+        median.buildBVH(toShapeList(shapes));
+        BoundedVolumeHierarchy surfaceArea = new BoundedVolumeHierarchy();
+        surfaceArea.setSplitMethod(BVH.SplitMethod.SPLIT_SURFACE_AREA);
+        surfaceArea.buildBVH(toShapeList(shapes));
+
+        assertTrue(surfaceArea.calcSAHCost() <= median.calcSAHCost(),
+                () -> median.getCostReport() + " vs " + surfaceArea.getCostReport());
+
+        List<Triangle> leaves = new ArrayList<>();
+        collectLeafTriangles(BVHStringParser.parse(surfaceArea.toString()), leaves);
+        assertEquals(shapes.size(), leaves.size());
+        for (Triangle triangle : shapes) {
+            assertEquals(median.findCollision(triangle.getCenter()), surfaceArea.findCollision(triangle.getCenter()));
+        }
+    }
+
+    @Test
+    public void parallelBuildMatchesSequentialBuild() {
+        List<Shape> shapes = toShapeList(generateClusteredTriangles(40000, 7));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (BVH.SplitMethod splitMethod : BVH.SplitMethod.values()) {
+                BoundedVolumeHierarchy sequential = new BoundedVolumeHierarchy();
+                sequential.setSplitMethod(splitMethod);
+                sequential.buildBVH(shapes);
+
+                BoundedVolumeHierarchy parallel = new BoundedVolumeHierarchy();
+                parallel.setSplitMethod(splitMethod);
+                parallel.setBuildPool(pool);
+                parallel.setParallelCutoff(64);
+                parallel.buildBVH(shapes);
+
+                assertEquals(sequential.toString(), parallel.toString(),
+                        () -> "Split " + splitMethod + " should build the same tree in parallel.");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void frozenBVHAnswersQueriesLikeTheTreeItCameFrom() {
+        List<Triangle> shapes = new ArrayList<>(generateClusteredTriangles(500, 11));
+        // collinear triangles, probed on their lines beyond the ends below
+        shapes.add(new Triangle(new Point(5, -97), new Point(10, -92), new Point(15, -87)));
+        shapes.add(new Triangle(new Point(300, 40), new Point(340, 40), new Point(320, 40)));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setSplitMethod(BVH.SplitMethod.SPLIT_SURFACE_AREA);
+        bvh.buildBVH(toShapeList(shapes));
+        FrozenBVH frozen = bvh.freeze();
+
+        assertEquals(2 * shapes.size() - 1, frozen.getNodeCount());
+        for (Triangle triangle : shapes) {
+            assertEquals(bvh.findCollision(triangle.getCenter()), frozen.findCollision(triangle.getCenter()));
+        }
+        for (Point2D.Double point : new Point2D.Double[]{new Point2D.Double(-3, -105), new Point2D.Double(10, -92),
+                new Point2D.Double(290, 40), new Point2D.Double(335.5, 40)}) {
+            assertEquals(bvh.findCollision(point), frozen.findCollision(point));
+        }
+
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            Point2D.Double origin = new Point2D.Double(random.nextInt(1200) - 100, random.nextInt(1200) - 100);
+            Vector2D direction = new Vector2D(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+            assertSame(bvh.intersectRay(origin, direction), frozen.intersectRay(origin, direction));
+        }
+
+        FrozenBVH empty = new BoundedVolumeHierarchy().freeze();
+        assertTrue(empty.findCollision(new Point2D.Double(0, 0)).isEmpty());
+        assertNull(empty.intersectRay(new Point2D.Double(0, 0), new Vector2D(1, 0)));
+    }
+
+    @Test
+    public void rectangleRayEntryUsesSlabDistances() {
+        Rectangle box = new Rectangle(new Point(10, -5), new Point(20, 5));
+
+        assertEquals(10, box.findRayEntry(0, 0, 1, Double.POSITIVE_INFINITY), 1e-9);
+        assertEquals(5, box.findRayEntry(0, 0, 1 / 2.0, Double.POSITIVE_INFINITY), 1e-9);
+        assertEquals(0, box.findRayEntry(15, 0, -1, 1), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, box.findRayEntry(0, 0, -1, Double.POSITIVE_INFINITY));
+        assertEquals(Double.POSITIVE_INFINITY, box.findRayEntry(0, 6, 1, Double.POSITIVE_INFINITY));
+        assertEquals(Double.POSITIVE_INFINITY, box.findRayEntry(0, 0, 1, 1 / 2.0));
+
+        assertTrue(box.doesRayIntersect(new Point(15, 20), new Vector2D(0, -1)));
+        assertFalse(box.doesRayIntersect(new Point(15, 20), new Vector2D(0, 1)));
+
+        // passes exactly through the (-35, 25) corner, where the two slab distances only agree up to rounding
+        Rectangle cornerBox = new Rectangle(new Point(-35, 25), new Point(-23, 36));
+        assertTrue(cornerBox.doesRayIntersect(new Point(0, 0), new Vector2D(-196, 140)));
+    }
+
+    @Test
+    public void rectangleRayHitsAreWhereTheRayEnters() {
+        Rectangle box = new Rectangle(new Point(10, -5), new Point(20, 5));
+        RayHit hit = new RayHit();
+
+        assertTrue(box.findIntersection(0, 3, 2, 0, hit));
+        assertSame(box, hit.shape);
+        assertEquals(10, hit.distance, 1e-9);
+        assertEquals(10, hit.x, 1e-9);
+        assertEquals(3, hit.y, 1e-9);
+        assertEquals(-1, hit.edge);
+
+        // through the bottom side from a fractional origin: enters at y = -5 after a quarter of (8, 20)
+        assertTrue(box.findIntersection(10.5, -10, 8, 20, hit));
+        assertEquals(12.5, hit.x, 1e-9);
+        assertEquals(-5, hit.y, 1e-9);
+        assertEquals(Math.hypot(2, 5), hit.distance, 1e-9);
+
+        // a ray starting inside hits where it starts
+        assertTrue(box.findIntersection(new Point(15, 0), new Vector2D(-1, 1), hit));
+        assertEquals(0, hit.distance);
+        assertEquals(15, hit.x);
+
+        hit.reset();
+        assertFalse(box.findIntersection(0, 3, -1, 0, hit));
+        assertNull(hit.shape);
+        assertNull(box.findIntersection(new Point(0, 6), new Vector2D(1, 0)));
+        assertEquals(new Point2D.Double(20, 0), box.findIntersection(new Point(30, 0), new Vector2D(-1, 0)));
+    }
+
+    @Test
+    public void intersectRayMatchesBruteForceNearestHit() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 19);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(23);
+        for (int i = 0; i < 300; i++) {
+            Point2D.Double origin = new Point2D.Double(random.nextDouble() * 1100 - 50, random.nextDouble() * 1100 - 50);
+            Vector2D direction = new Vector2D(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+            Point originInt = new Point((int) origin.x, (int) origin.y);
+
+            double nearest = Double.POSITIVE_INFINITY;
+            for (Triangle triangle : shapes) {
+                Point2D.Double hit = triangle.findIntersection(originInt, direction);
+                if (hit != null) {
+                    nearest = Math.min(nearest, BVH.distanceBetweenPoints(origin, hit));
+                }
+            }
+
+            Shape hitShape = bvh.intersectRay(origin, direction);
+            if (nearest == Double.POSITIVE_INFINITY) {
+                assertNull(hitShape);
+            } else {
+                assertNotNull(hitShape);
+                assertEquals(nearest, BVH.distanceBetweenPoints(origin, hitShape.findIntersection(originInt, direction)), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void intersectRayFillsReusableHitRecord() {
+        Triangle closer = new Triangle(new Point(10, -5), new Point(10, 5), new Point(20, 0));
+        Triangle farther = new Triangle(new Point(40, -5), new Point(40, 5), new Point(55, 0));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(closer, farther));
+
+        RayHit hit = new RayHit();
+        assertTrue(bvh.intersectRay(new Point2D.Double(0, 0), new Vector2D(1, 0), hit));
+        assertSame(closer, hit.shape);
+        assertEquals(10, hit.distance, 1e-9);
+        assertEquals(10, hit.x, 1e-9);
+        assertEquals(0, hit.y, 1e-9);
+        assertEquals(0, hit.edge); // a-b is the vertical edge at x = 10
+
+        assertFalse(bvh.intersectRay(new Point2D.Double(0, 0), new Vector2D(-1, 0), hit));
+        assertNull(hit.shape);
+        assertEquals(Double.POSITIVE_INFINITY, hit.distance);
+    }
+
+    @Test
+    public void rayParameterMatchesLineIntersections() {
+        List<Triangle> shapes = generateClusteredTriangles(200, 31);
+        Random random = new Random(37);
+        for (int i = 0; i < 300; i++) {
+            double originX = random.nextInt(1100) - 50;
+            double originY = random.nextInt(1100) - 50;
+            double directionX = random.nextDouble() - 0.5;
+            double directionY = random.nextDouble() - 0.5;
+            Point origin = new Point((int) originX, (int) originY);
+            Vector2D direction = new Vector2D(directionX, directionY);
+
+            for (Triangle triangle : shapes) {
+                double expected = Double.POSITIVE_INFINITY;
+                for (int edge = 0; edge < 3; edge++) {
+                    Point p = edge == 2 ? triangle.b : triangle.a;
+                    Point q = edge == 0 ? triangle.b : triangle.c;
+                    Point2D.Double crossing = Shape.lineLineIntersection(originX, originY, originX + directionX, originY + directionY, p.x, p.y, q.x, q.y);
+                    if (crossing == null
+                            || crossing.x < Math.min(p.x, q.x) - 1e-9 || crossing.x > Math.max(p.x, q.x) + 1e-9
+                            || crossing.y < Math.min(p.y, q.y) - 1e-9 || crossing.y > Math.max(p.y, q.y) + 1e-9) {
+                        continue;
+                    }
+                    double t = ((crossing.x - originX) * directionX + (crossing.y - originY) * directionY) / (directionX * directionX + directionY * directionY);
+                    if (t >= 0) {
+                        expected = Math.min(expected, t);
+                    }
+                }
+
+                double actual = triangle.findIntersectionParameter(originX, originY, directionX, directionY);
+                RayHit hit = new RayHit();
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertEquals(Double.POSITIVE_INFINITY, actual);
+                    assertFalse(triangle.findIntersection(origin, direction, hit));
+                } else {
+                    assertEquals(expected, actual, 1e-6);
+                    assertTrue(triangle.findIntersection(origin, direction, hit));
+                    assertEquals(originX + actual * directionX, hit.x, 1e-9);
+                    assertEquals(originY + actual * directionY, hit.y, 1e-9);
+                }
+            }
+        }
+
+        // running along an edge hits its nearer end
+        Triangle flat = new Triangle(new Point(10, 0), new Point(20, 0), new Point(15, 10));
+        assertEquals(10, flat.findIntersectionParameter(0, 0, 1, 0), 1e-9);
+        assertEquals(5, flat.findIntersectionParameter(0, 0, 2, 0), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, flat.findIntersectionParameter(0, 0, -1, 0));
+    }
+
+    @Test
+    public void fractionalOriginsAreTestedExactly() {
+        Triangle floor = new Triangle(new Point(0, 10), new Point(100, 10), new Point(50, 20));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(floor));
+
+        RayHit hit = new RayHit();
+        assertTrue(bvh.intersectRay(3.6, 0.5, 0, 1, hit));
+        assertEquals(3.6, hit.x, 1e-9);
+        assertEquals(9.5, hit.distance, 1e-9);
+        assertTrue(bvh.intersectRay(new Point2D.Double(3.6, 0.5), new Vector2D(0, 1), hit));
+        assertEquals(3, hit.x, 1e-9); // the whole-number overload still truncates
+
+        RayBatch batch = new RayBatch(1);
+        batch.setRay(0, 3.6, 0.5, 0, 1);
+        bvh.intersectRays(batch, false);
+        assertEquals(3.6, batch.hitX[0], 1e-9);
+
+        List<Triangle> shapes = generateClusteredTriangles(300, 41);
+        bvh.buildBVH(toShapeList(shapes));
+        FrozenBVH frozen = bvh.freeze();
+        Random random = new Random(43);
+        RayHit expected = new RayHit();
+        RayHit candidate = new RayHit();
+        for (int i = 0; i < 300; i++) {
+            double originX = random.nextDouble() * 1100 - 50;
+            double originY = random.nextDouble() * 1100 - 50;
+            double directionX = random.nextDouble() - 0.5;
+            double directionY = random.nextDouble() - 0.5;
+
+            expected.reset();
+            for (Triangle triangle : shapes) {
+                if (triangle.findIntersection(originX, originY, directionX, directionY, candidate) && candidate.distance < expected.distance) {
+                    expected.distance = candidate.distance;
+                    expected.shape = triangle;
+                }
+            }
+
+            assertEquals(expected.shape != null, bvh.intersectRay(originX, originY, directionX, directionY, hit));
+            assertEquals(expected.distance, hit.distance, 1e-9);
+            assertEquals(expected.shape != null, frozen.intersectRay(originX, originY, directionX, directionY, hit));
+            assertEquals(expected.distance, hit.distance, 1e-9);
+        }
+    }
+
+    @Test
+    public void quantizedTreeAnswersLikeTheFrozenTree() {
+        // tiny triangles over a wide area make the grids coarse, vertices probe the rounding right at the bounds
+        Random random = new Random(59);
+        List<Triangle> shapes = new ArrayList<>(generateClusteredTriangles(300, 61));
+        for (int i = 0; i < 300; i++) {
+            int x = random.nextInt(2_000_000) - 1_000_000;
+            int y = random.nextInt(2_000_000) - 1_000_000;
+            shapes.add(new Triangle(new Point(x, y), new Point(x + 1 + random.nextInt(3), y), new Point(x, y + 1 + random.nextInt(3))));
+        }
+
+        for (int maxLeafSize : new int[]{1, 4}) {
+            BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+            bvh.setSplitMethod(BVH.SplitMethod.SPLIT_SURFACE_AREA);
+            bvh.setMaxLeafSize(maxLeafSize);
+            bvh.buildBVH(toShapeList(shapes));
+            FrozenBVH frozen = bvh.freeze();
+            QuantizedBVH quantized = bvh.freezeQuantized();
+            assertEquals(frozen.getNodeCount(), quantized.getNodeCount());
+            assertTrue(quantized.getNodeBytes() < frozen.getNodeBytes() * 0.6);
+
+            RayHit expected = new RayHit();
+            RayHit actual = new RayHit();
+            for (Triangle triangle : shapes) {
+                for (Point vertex : new Point[]{triangle.a, triangle.b, triangle.c}) {
+                    Point2D.Double point = new Point2D.Double(vertex.x, vertex.y);
+                    assertEquals(frozen.findCollision(point), quantized.findCollision(point));
+                }
+                Point2D.Double origin = new Point2D.Double(triangle.a.x - 5.5, triangle.a.y + 0.25);
+                Vector2D direction = new Vector2D(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+                assertEquals(frozen.intersectRay(origin, direction, expected), quantized.intersectRay(origin, direction, actual));
+                assertEquals(expected.distance, actual.distance, 1e-9);
+                assertEquals(frozen.intersectRay(origin.x, origin.y, 1, 0, expected), quantized.intersectRay(origin.x, origin.y, 1, 0, actual));
+                assertEquals(expected.distance, actual.distance, 1e-9);
+            }
+        }
+        assertTrue(new BoundedVolumeHierarchy().freezeQuantized().findCollision(new Point2D.Double(0, 0)).isEmpty());
+    }
+
+    @Test
+    public void triangleSoupTreeMatchesFrozenTriangleTree() {
+        List<Triangle> shapes = generateClusteredTriangles(500, 47);
+        int[] coordinates = new int[shapes.size() * 6];
+        for (int i = 0; i < shapes.size(); i++) {
+            Triangle triangle = shapes.get(i);
+            int[] vertices = {triangle.a.x, triangle.a.y, triangle.b.x, triangle.b.y, triangle.c.x, triangle.c.y};
+            System.arraycopy(vertices, 0, coordinates, i * 6, 6);
+        }
+        TriangleSoup soup = new TriangleSoup(coordinates);
+
+        for (BVH.SplitMethod splitMethod : BVH.SplitMethod.values()) {
+            BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+            bvh.setSplitMethod(splitMethod);
+            bvh.setMaxLeafSize(4);
+            bvh.buildBVH(toShapeList(shapes));
+            FrozenBVH frozen = bvh.freeze();
+            TriangleSoupBVH soupTree = bvh.buildFrozen(soup);
+            assertEquals(frozen.getNodeCount(), soupTree.getNodeCount());
+
+            Random random = new Random(53);
+            RayHit expected = new RayHit();
+            RayHit actual = new RayHit();
+            for (int i = 0; i < 300; i++) {
+                Point2D.Double point = new Point2D.Double(random.nextDouble() * 1000, random.nextDouble() * 1000);
+                Set<Shape> found = new HashSet<>();
+                soupTree.findCollision(point.x, point.y, triangle -> found.add(shapes.get(triangle)));
+                assertEquals(frozen.findCollision(point), found);
+
+                double directionX = random.nextDouble() - 0.5;
+                double directionY = random.nextDouble() - 0.5;
+                assertEquals(frozen.intersectRay(point.x, point.y, directionX, directionY, expected),
+                        soupTree.intersectRay(point.x, point.y, directionX, directionY, actual));
+                if (expected.shape != null) {
+                    assertEquals(expected.distance, actual.distance, 1e-9);
+                    assertSame(expected.shape, shapes.get(((SoupTriangle) actual.shape).getIndex()));
+                }
+            }
+        }
+
+        // a square drawn as two triangles that share the diagonal's vertices
+        int[] meshVertices = {0, 0, 10, 0, 10, 10, 0, 10};
+        int[] meshIndices = {0, 1, 2, 0, 2, 3};
+        TriangleSoup mesh = new TriangleSoup(meshVertices, meshIndices);
+        TriangleSoupBVH meshTree = new BoundedVolumeHierarchy().buildFrozen(mesh);
+        assertEquals(new HashSet<>(Arrays.asList(mesh.getTriangle(0), mesh.getTriangle(1))), meshTree.findCollision(new Point2D.Double(5, 5)));
+        assertEquals(Collections.singleton(mesh.getTriangle(1)), meshTree.findCollision(new Point2D.Double(2, 8)));
+        assertEquals("(0, 0) (10, 10) (0, 10)", mesh.getTriangle(1).toString());
+
+        // the soups copied the arrays they were built from, so later writes to them don't reach the trees
+        meshVertices[6] = 50;
+        meshIndices[5] = 1;
+        int firstX = soup.getX(0, 0);
+        coordinates[0] += 100;
+        assertEquals("(0, 0) (10, 10) (0, 10)", mesh.getTriangle(1).toString());
+        assertEquals(Collections.singleton(mesh.getTriangle(1)), meshTree.findCollision(new Point2D.Double(2, 8)));
+        assertEquals(firstX, soup.getX(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TriangleSoup(new int[]{0, 0, 10, 0}, new int[]{0, 1, 2}));
+        assertEquals(0, new BoundedVolumeHierarchy().buildFrozen(new TriangleSoup(new int[0])).findCollision(new Point2D.Double(0, 0)).size());
+    }
+
+    @Test
+    public void collinearTrianglesOnlyContainPointsBetweenTheirEnds() {
+        Triangle slope = new Triangle(new Point(5, -97), new Point(10, -92), new Point(15, -87));
+        Triangle flat = new Triangle(new Point(300, 40), new Point(340, 40), new Point(320, 40));
+        Triangle dot = new Triangle(new Point(50, 50), new Point(50, 50), new Point(50, 50));
+        List<Triangle> shapes = Arrays.asList(slope, flat, dot);
+
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+        FrozenBVH frozen = bvh.freeze();
+        QuantizedBVH quantized = bvh.freezeQuantized();
+        TriangleSoup soup = new TriangleSoup(new int[]{5, -97, 10, -92, 15, -87, 300, 40, 340, 40, 320, 40, 50, 50, 50, 50, 50, 50});
+        TriangleSoupBVH soupTree = bvh.buildFrozen(soup);
+
+        // on each line, between the ends and beyond them
+        Point2D.Double[] inside = {new Point2D.Double(5, -97), new Point2D.Double(12.5, -89.5), new Point2D.Double(335.5, 40), new Point2D.Double(50, 50)};
+        Shape[] containing = {slope, slope, flat, dot};
+        Point2D.Double[] outside = {new Point2D.Double(-3, -105), new Point2D.Double(16, -86), new Point2D.Double(290, 40), new Point2D.Double(350, 40), new Point2D.Double(0, 0)};
+        for (int i = 0; i < inside.length; i++) {
+            Set<Shape> expected = Collections.singleton(containing[i]);
+            assertTrue(containing[i].containsPoint(inside[i]));
+            assertEquals(expected, bvh.findCollision(inside[i]));
+            assertEquals(expected, frozen.findCollision(inside[i]));
+            assertEquals(expected, quantized.findCollision(inside[i]));
+            assertEquals(Collections.singleton(soup.getTriangle(shapes.indexOf(containing[i]))), soupTree.findCollision(inside[i]));
+        }
+        for (Point2D.Double point : outside) {
+            for (Triangle triangle : shapes) {
+                assertFalse(triangle.containsPoint(point));
+            }
+            assertTrue(bvh.findCollision(point).isEmpty());
+            assertTrue(frozen.findCollision(point).isEmpty());
+            assertTrue(quantized.findCollision(point).isEmpty());
+            assertTrue(soupTree.findCollision(point).isEmpty());
+        }
+    }
+
+    @Test
+    public void batchedRaysMatchSingleRayQueries() {
+        List<Triangle> shapes = generateClusteredTriangles(300, 29);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(31);
+        RayBatch batch = new RayBatch(5000);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setRay(i, random.nextInt(1100) - 50, random.nextInt(1100) - 50, random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+        }
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            bvh.intersectRays(batch, parallel);
+            RayHit hit = new RayHit();
+            for (int i = 0; i < batch.size(); i++) {
+                Point2D.Double origin = new Point2D.Double(batch.originX[i], batch.originY[i]);
+                bvh.intersectRay(origin, new Vector2D(batch.directionX[i], batch.directionY[i]), hit);
+                assertSame(hit.shape, batch.hitShape[i]);
+                assertEquals(hit.distance, batch.hitDistance[i]);
+            }
+        }
+    }
+
+    @Test
+    public void rayFansMatchBatchedRays() {
+        List<Triangle> shapes = generateClusteredTriangles(300, 37);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        // inside a triangle, between the clusters, and just east of a triangle so the rays reaching it span the
+        // angle pi, from either side of its center
+        Point2D.Double inside = shapes.get(0).getCenter();
+        Point2D.Double west = shapes.get(1).getCenter();
+        double east = shapes.get(1).getMaxSurroundingPoint().x + 3;
+        double[][] origins = {{inside.x, inside.y}, {400, 400}, {east, west.y}, {east, west.y + 0.5}};
+        Random random = new Random(41);
+        for (double[] origin : origins) {
+            RayBatch batch = new RayBatch(3000);
+            for (int i = 0; i < batch.size(); i++) {
+                double dirX = i < 4 ? (i % 2) * (2 - i) : random.nextInt(201) - 100; // the first four point along the axes
+                double dirY = i < 4 ? ((i + 1) % 2) * (1 - i) : dirX == 0 ? 1 + random.nextInt(100) : random.nextInt(201) - 100;
+                double maxDistance = i % 3 == 0 ? Double.POSITIVE_INFINITY : random.nextInt(900);
+                batch.setRay(i, origin[0], origin[1], dirX, dirY, maxDistance);
+            }
+            bvh.intersectRays(batch, false);
+            double[] distances = batch.hitDistance.clone();
+            double[] hitXs = batch.hitX.clone();
+            double[] hitYs = batch.hitY.clone();
+
+            batch.indexByAngle();
+            bvh.intersectRayFan(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(distances[i], batch.hitDistance[i]);
+                assertEquals(hitXs[i], batch.hitX[i]);
+                assertEquals(hitYs[i], batch.hitY[i]);
+                assertEquals(batch.hitDistance[i] != Double.POSITIVE_INFINITY, batch.hitShape[i] != null);
+            }
+        }
+    }
+
+    @Test
+    public void rayFansRejectUnindexedOrScatteredRays() {
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(new Triangle(new Point(50, -100), new Point(50, 100), new Point(80, 0))));
+
+        RayBatch batch = new RayBatch(2);
+        batch.setRay(0, 0, 0, 1, 0);
+        batch.setRay(1, 0, 0, 0, 1);
+        assertThrows(IllegalArgumentException.class, () -> bvh.intersectRayFan(batch));
+
+        batch.setRay(1, 5, 0, 0, 1);
+        batch.indexByAngle();
+        assertThrows(IllegalArgumentException.class, () -> bvh.intersectRayFan(batch));
+    }
+
+    @Test
+    public void renderedFrameLightsTheVisibleEdgeOfAKnownTriangle() {
+        // a wall whose near edge runs along x = 50 from y = -100 to 100, seen from the square at (0, 0)
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(new Triangle(new Point(50, -100), new Point(50, 100), new Point(80, 0))));
+        Visualization visualization = new Visualization(bvh);
+        visualization.setRayDensity(1);
+
+        BufferedImage frame = visualization.renderFrame();
+        Set<Point> lit = new HashSet<>();
+        for (int guiY = 0; guiY < frame.getHeight(); guiY++) {
+            for (int guiX = 0; guiX < frame.getWidth(); guiX++) {
+                int argb = frame.getRGB(guiX, guiY);
+                if (argb != 0) {
+                    assertEquals(0xFF000000, argb);
+                    lit.add(new Point(guiX, guiY));
+                }
+            }
+        }
+
+        // x = 50 is GUI column 250, and hit points are truncated, so rounding can only move a pixel one to the left or up
+        for (Point pixel : lit) {
+            assertTrue(pixel.x == 249 || pixel.x == 250, pixel.toString());
+            assertTrue(pixel.y >= 99 && pixel.y <= 300, pixel.toString());
+        }
+
+        // every ray aimed well inside the edge lights the pixel where it crosses x = 50
+        for (int guiX = 211; guiX < 400; guiX++) {
+            for (int guiY = 0; guiY < 400; guiY++) {
+                double dirX = guiX - 200;
+                double dirY = 200 - guiY;
+                double crossingY = 50 * dirY / dirX;
+                if (Math.abs(crossingY) >= 99) {
+                    continue;
+                }
+                int expectedY = (int) (200 - crossingY);
+                assertTrue(lit.contains(new Point(250, expectedY)) || lit.contains(new Point(249, expectedY))
+                        || lit.contains(new Point(250, expectedY - 1)) || lit.contains(new Point(249, expectedY - 1)),
+                        "ray toward (" + guiX + ", " + guiY + ")");
+            }
+        }
+
+        assertEquals(lit, new HashSet<>(visualization.drawGUI()));
+    }
+
+    @Test
+    public void hasCollisionAgreesWithFindCollision() {
+        List<Triangle> shapes = generateClusteredTriangles(300, 37);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(41);
+        for (int i = 0; i < 2000; i++) {
+            Point2D.Double point = new Point2D.Double(random.nextDouble() * 1100 - 50, random.nextDouble() * 1100 - 50);
+            assertEquals(!bvh.findCollision(point).isEmpty(), bvh.hasCollision(point));
+        }
+        for (Triangle triangle : shapes) {
+            assertTrue(bvh.hasCollision(triangle.getCenter()));
+        }
+        assertFalse(new BoundedVolumeHierarchy().hasCollision(new Point2D.Double(0, 0)));
+    }
+
+    @Test
+    public void collisionVisitorReportsEachContainingShapeOnce() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 61);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+        FrozenBVH frozen = bvh.freeze();
+
+        Random random = new Random(67);
+        for (int i = 0; i < 500; i++) {
+            Point2D.Double point = new Point2D.Double(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            List<Shape> expected = new ArrayList<>();
+            for (Triangle triangle : shapes) {
+                if (triangle.containsPoint(point)) {
+                    expected.add(triangle);
+                }
+            }
+
+            List<Shape> visited = new ArrayList<>();
+            bvh.findCollision(point, visited::add);
+            assertEquals(expected.size(), visited.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(visited));
+
+            List<Shape> frozenVisited = new ArrayList<>();
+            frozen.findCollision(point, frozenVisited::add);
+            assertEquals(expected.size(), frozenVisited.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(frozenVisited));
+        }
+    }
+
+    @Test
+    public void queriesStartedFromInsideAConsumerDontDisturbTheOuterQuery() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 71);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Rectangle2D.Double box = new Rectangle2D.Double(680, 680, 60, 60);
+        Set<Shape> expected = bvh.findOverlaps(box);
+        assertFalse(expected.isEmpty());
+
+        Set<Shape> visited = new HashSet<>();
+        bvh.findOverlaps(box, shape -> {
+            visited.add(shape);
+            // runs a full query on the same thread while the outer one is mid-traversal
+            Triangle triangle = (Triangle) shape;
+            assertTrue(bvh.findCollision(triangle.getCenter()).contains(shape));
+        });
+        assertEquals(expected, visited);
+
+        // the array-backed trees share one stack per thread, so nest queries over another part of the tree inside
+        // each other's consumers: a reused stack would lose the outer query's pending nodes
+        List<Shape> nested = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            nested.add(new Triangle(new Point(0, 0), new Point(10 + i, 0), new Point(0, 10 + i)));
+            nested.add(new Triangle(new Point(500, 500), new Point(510 + i, 500), new Point(500, 510 + i)));
+        }
+        BoundedVolumeHierarchy nestedTree = new BoundedVolumeHierarchy();
+        nestedTree.buildBVH(nested);
+        FrozenBVH frozen = nestedTree.freeze();
+        QuantizedBVH quantized = nestedTree.freezeQuantized();
+        Point2D.Double near = new Point2D.Double(1, 1);
+        Point2D.Double far = new Point2D.Double(501, 501);
+        List<Shape> frozenVisited = new ArrayList<>();
+        List<Shape> quantizedVisited = new ArrayList<>();
+        frozen.findCollision(near, shape -> {
+            frozenVisited.add(shape);
+            assertEquals(50, quantized.findCollision(far).size());
+            assertNotNull(frozen.intersectRay(new Point2D.Double(600, 501), new Vector2D(-1, 0)));
+        });
+        quantized.findCollision(near, shape -> {
+            quantizedVisited.add(shape);
+            assertEquals(50, frozen.findCollision(far).size());
+            assertNotNull(quantized.intersectRay(new Point2D.Double(600, 501), new Vector2D(-1, 0)));
+        });
+        assertEquals(50, frozenVisited.size());
+        assertEquals(50, quantizedVisited.size());
+
+        int[] coordinates = new int[nested.size() * 6];
+        for (int i = 0; i < 50; i++) {
+            int[] pair = {0, 0, 10 + i, 0, 0, 10 + i, 500, 500, 510 + i, 500, 500, 510 + i};
+            System.arraycopy(pair, 0, coordinates, i * 12, 12);
+        }
+        TriangleSoupBVH soupTree = new BoundedVolumeHierarchy().buildFrozen(new TriangleSoup(coordinates));
+        List<Integer> soupVisited = new ArrayList<>();
+        RayHit soupHit = new RayHit();
+        soupTree.findCollision(near.x, near.y, triangle -> {
+            soupVisited.add(triangle);
+            assertEquals(50, soupTree.findCollision(far).size());
+            assertTrue(soupTree.intersectRay(600, 501, -1, 0, soupHit));
+        });
+        assertEquals(50, soupVisited.size());
+    }
+
+    @Test
+    public void queriesOnAVeryDeepTreeDontOverflowTheCallStack() throws Throwable {
+        // each triangle contains the ones before it, so surface-area inserts put it next to the whole tree: a chain
+        int count = 20000;
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setBalanceMethod(BoundedVolumeHierarchy.BalanceMethod.BALANCE_SURFACE_AREA);
+        Triangle largest = null;
+        for (int size = 1; size <= count; size++) {
+            largest = new Triangle(new Point(0, 0), new Point(size, 0), new Point(0, size));
+            bvh.insert(largest);
+        }
+        assertEquals(count - 1, bvh.getHeight());
+        Triangle outermost = largest;
+
+        // a small thread stack, so recursing once per level would overflow long before the bottom
+        Throwable[] failure = new Throwable[1];
+        Thread queries = new Thread(null, () -> {
+            try {
+                assertEquals(count, bvh.findCollision(new Point2D.Double(0.5, 0.25)).size());
+                assertTrue(bvh.hasCollision(new Point2D.Double(count - 1, 0.5)));
+                assertEquals(count, bvh.findOverlaps(new Rectangle2D.Double(-1, -1, 2, 2)).size());
+
+                RayHit hit = new RayHit();
+                assertTrue(bvh.intersectRay(new Point2D.Double(count, count), new Vector2D(-1, -1), hit));
+                assertSame(outermost, hit.shape);
+                assertEquals(count / Math.sqrt(2), hit.distance, 1E-6);
+                assertNull(bvh.intersectRay(new Point2D.Double(-10, -10), new Vector2D(-1, 0)));
+
+                SweepHit sweep = new SweepHit();
+                assertTrue(bvh.sweepBox(new Rectangle2D.Double(-20, 5, 10, 10), 30, 0, sweep));
+                assertEquals(1.0 / 3, sweep.time, 1E-9);
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "deep-tree-queries", 256 * 1024);
+        queries.start();
+        queries.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    @Test
+    public void multiShapeLeavesAnswerQueriesLikeSingleShapeLeaves() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 73);
+        BoundedVolumeHierarchy single = new BoundedVolumeHierarchy();
+        single.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(79);
+        for (BVH.SplitMethod method : BVH.SplitMethod.values()) {
+            BoundedVolumeHierarchy grouped = new BoundedVolumeHierarchy();
+            grouped.setSplitMethod(method);
+            grouped.setMaxLeafSize(4);
+            grouped.buildBVH(toShapeList(shapes));
+            FrozenBVH frozen = grouped.freeze();
+            assertTrue(frozen.getNodeCount() < 2 * shapes.size() - 1, grouped.getCostReport());
+
+            RayHit expectedHit = new RayHit();
+            RayHit actualHit = new RayHit();
+            SweepHit expectedSweep = new SweepHit();
+            SweepHit actualSweep = new SweepHit();
+            for (int i = 0; i < 300; i++) {
+                Point2D.Double point = new Point2D.Double(random.nextDouble() * 1100 - 50, random.nextDouble() * 1100 - 50);
+                assertEquals(single.findCollision(point), grouped.findCollision(point));
+                assertEquals(single.findCollision(point), frozen.findCollision(point));
+                assertEquals(single.hasCollision(point), grouped.hasCollision(point));
+
+                Rectangle2D.Double box = new Rectangle2D.Double(point.x, point.y, random.nextDouble() * 30, random.nextDouble() * 30);
+                assertEquals(single.findOverlaps(box), grouped.findOverlaps(box));
+                assertEquals(single.hasOverlap(box), grouped.hasOverlap(box));
+
+                double angle = random.nextDouble() * 2 * Math.PI;
+                Vector2D direction = new Vector2D(Math.cos(angle), Math.sin(angle));
+                single.intersectRay(point, direction, expectedHit);
+                grouped.intersectRay(point, direction, actualHit);
+                assertEquals(expectedHit.distance, actualHit.distance, 1E-9);
+                frozen.intersectRay(point, direction, actualHit);
+                assertEquals(expectedHit.distance, actualHit.distance, 1E-9);
+
+                single.sweepBox(box, direction.getX() * 40, direction.getY() * 40, expectedSweep);
+                grouped.sweepBox(box, direction.getX() * 40, direction.getY() * 40, actualSweep);
+                assertEquals(expectedSweep.time, actualSweep.time, 1E-9);
+            }
+        }
+    }
+
+    @Test
+    public void multiShapeLeavesFillOnInsertAndShrinkOnRemove() {
+        List<Triangle> shapes = generateClusteredTriangles(60, 83);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setMaxLeafSize(3);
+        for (Triangle triangle : shapes) {
+            bvh.insert(triangle);
+        }
+        // 60 shapes in leaves of at most 3 need at least 20 leaves, so at least 39 nodes
+        FrozenBVH frozen = bvh.freeze();
+        assertTrue(frozen.getNodeCount() < 2 * shapes.size() - 1);
+        assertTrue(frozen.getNodeCount() >= 39);
+
+        for (Triangle triangle : shapes) {
+            assertTrue(bvh.findCollision(triangle.getCenter()).contains(triangle));
+        }
+        for (int i = 0; i < shapes.size(); i += 2) {
+            bvh.remove(shapes.get(i));
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            Triangle triangle = shapes.get(i);
+            assertEquals(i % 2 == 1, bvh.findCollision(triangle.getCenter()).contains(triangle));
+        }
+    }
+
+    @Test
+    public void removeByInstanceAndByEqualCopyUnderChurn() {
+        List<Triangle> shapes = generateClusteredTriangles(600, 89);
+        List<Triangle> equalCopies = generateClusteredTriangles(600, 89);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes.subList(0, 300)));
+        for (Triangle triangle : shapes.subList(300, 600)) {
+            bvh.insert(triangle);
+        }
+
+        Random random = new Random(97);
+        List<Triangle> remaining = new ArrayList<>(shapes);
+        for (int i = 0; i < 450; i++) {
+            Triangle removed = remaining.remove(random.nextInt(remaining.size()));
+            if (i % 3 == 0) {
+                // an equal triangle that was never inserted goes through the search path
+                Triangle copy = equalCopies.get(shapes.indexOf(removed));
+                assertNotSame(removed, copy);
+                bvh.remove(copy);
+            } else {
+                bvh.remove(removed);
+            }
+        }
+
+        FrozenBVH frozen = bvh.freeze();
+        assertEquals(2 * remaining.size() - 1, frozen.getNodeCount());
+        for (Triangle triangle : remaining) {
+            assertTrue(bvh.findCollision(triangle.getCenter()).contains(triangle));
+        }
+        // a balanced tree of 150 leaves is at most about 1.44 * log2(150) high
+        assertTrue(bvh.getHeight() <= 11, bvh.getCostReport());
+
+        for (Triangle triangle : remaining) {
+            bvh.remove(triangle);
+        }
+        assertEquals("", bvh.toString());
+        assertEquals(-1, bvh.getHeight());
+    }
+
+    @Test
+    public void refitFollowsShapesMovedInPlace() {
+        List<Triangle> shapes = generateClusteredTriangles(300, 101);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        // move a few triangles across the scene one at a time
+        for (int i = 0; i < 30; i++) {
+            Triangle triangle = shapes.get(i);
+            moveTriangle(triangle, 500 + i, -400);
+            bvh.refit(triangle);
+        }
+        assertMatchesBruteForceCollisions(bvh, shapes);
+
+        // then move all of them and refit in one pass
+        Random random = new Random(103);
+        for (Triangle triangle : shapes) {
+            moveTriangle(triangle, random.nextInt(41) - 20, random.nextInt(41) - 20);
+        }
+        bvh.refitAll();
+        assertMatchesBruteForceCollisions(bvh, shapes);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> bvh.refit(new Triangle(new Point(0, 0), new Point(1, 0), new Point(0, 1))));
+    }
+
+    @Test
+    public void fatMarginSkipsRefitsForSmallMoves() {
+        // the left leaf gives the root its min sides and the right leaf its max sides
+        Triangle left = new Triangle(new Point(0, 0), new Point(10, 0), new Point(0, 10));
+        Triangle right = new Triangle(new Point(100, 20), new Point(110, 20), new Point(100, 30));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setFatMargin(5);
+        bvh.buildBVH(toShapeList(left, right));
+        assertRectangleEquals(new Rectangle(new Point(-5, -5), new Point(115, 35)), BVHStringParser.parse(bvh.toString()).boundingBox);
+
+        // jitter within the margin never touches the tree
+        for (int i = 0; i < 10; i++) {
+            moveTriangle(right, i % 2 == 0 ? 4 : -4, 0);
+            assertFalse(bvh.refit(right));
+        }
+        moveTriangle(right, 6, 0); // x = 106 to 116, one past the leaf
+        assertTrue(bvh.refit(right));
+        assertRectangleEquals(new Rectangle(new Point(-5, -5), new Point(121, 35)), BVHStringParser.parse(bvh.toString()).boundingBox);
+
+        // a predicted move stretches the leaf only on the side the shape is heading: y = 15 to 30 + 5 + 30
+        moveTriangle(left, 0, 20);
+        assertTrue(bvh.refit(left, 0, 30));
+        assertRectangleEquals(new Rectangle(new Point(-5, 15), new Point(121, 65)), BVHStringParser.parse(bvh.toString()).boundingBox);
+        for (int i = 0; i < 6; i++) {
+            moveTriangle(left, 0, 5);
+            assertFalse(bvh.refit(left, 0, 30));
+        }
+        moveTriangle(left, 0, 10); // top at 70, past 65
+        assertTrue(bvh.refit(left, 0, 30));
+        assertRectangleEquals(new Rectangle(new Point(-5, 15), new Point(121, 105)), BVHStringParser.parse(bvh.toString()).boundingBox);
+
+        // queries still use exact geometry when leaves are loose
+        List<Triangle> shapes = generateClusteredTriangles(300, 107);
+        BoundedVolumeHierarchy scene = new BoundedVolumeHierarchy();
+        scene.setFatMargin(5);
+        scene.buildBVH(toShapeList(shapes));
+        Random random = new Random(109);
+        for (Triangle triangle : shapes) {
+            moveTriangle(triangle, random.nextInt(21) - 10, random.nextInt(21) - 10);
+        }
+        scene.refitAll();
+        assertMatchesBruteForceCollisions(scene, shapes);
+    }
+
+    @Test
+    public void containsPointFollowsEdgesWindingAndMovedVertices() {
+        Triangle counterClockwise = new Triangle(new Point(0, 0), new Point(10, 0), new Point(0, 10));
+        Triangle clockwise = new Triangle(new Point(0, 0), new Point(0, 10), new Point(10, 0));
+        for (Triangle triangle : Arrays.asList(counterClockwise, clockwise)) {
+            assertTrue(triangle.containsPoint(new Point2D.Double(2, 2)));
+            assertTrue(triangle.containsPoint(new Point2D.Double(5, 5))); // on the slanted edge
+            assertTrue(triangle.containsPoint(new Point2D.Double(0, 0)));
+            assertFalse(triangle.containsPoint(new Point2D.Double(5.01, 5)));
+            assertFalse(triangle.containsPoint(new Point2D.Double(-0.01, 3)));
+        }
+
+        Triangle flat = new Triangle(new Point(0, 0), new Point(10, 10), new Point(5, 5));
+        assertTrue(flat.containsPoint(new Point2D.Double(3, 3)));
+        assertFalse(flat.containsPoint(new Point2D.Double(3, 4)));
+
+        // replacing a vertex and moving one in place both have to be noticed
+        counterClockwise.c = new Point(20, 10);
+        assertTrue(counterClockwise.containsPoint(new Point2D.Double(12, 4)));
+        counterClockwise.c.setLocation(0, 10);
+        assertFalse(counterClockwise.containsPoint(new Point2D.Double(12, 4)));
+        assertTrue(counterClockwise.containsPoint(new Point2D.Double(2, 2)));
+    }
+
+    private void moveTriangle(Triangle triangle, int dx, int dy) {
+        triangle.a = new Point(triangle.a.x + dx, triangle.a.y + dy);
+        triangle.b = new Point(triangle.b.x + dx, triangle.b.y + dy);
+        triangle.c = new Point(triangle.c.x + dx, triangle.c.y + dy);
+    }
+
+    private void assertMatchesBruteForceCollisions(BVH bvh, List<Triangle> shapes) {
+        for (Triangle triangle : shapes) {
+            Point2D.Double center = triangle.getCenter();
+            Set<Shape> expected = new HashSet<>();
+            for (Triangle other : shapes) {
+                if (other.containsPoint(center)) {
+                    expected.add(other);
+                }
+            }
+            assertEquals(expected, bvh.findCollision(center));
+        }
+    }
+
+    @Test
+    public void surfaceAreaRotationSwapsAFarLeafDownNextToItsNeighbour() {
+        Triangle far = new Triangle(new Point(80, 10), new Point(85, 10), new Point(80, 15));
+        Triangle low = new Triangle(new Point(20, 0), new Point(25, 0), new Point(20, 5));
+        Triangle high = new Triangle(new Point(40, 10), new Point(45, 10), new Point(40, 15));
+        Triangle corner = new Triangle(new Point(0, 0), new Point(5, 0), new Point(0, 5));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setBalanceMethod(BoundedVolumeHierarchy.BalanceMethod.BALANCE_SURFACE_AREA);
+        bvh.insert(far);
+        bvh.insert(low);
+        bvh.insert(high);
+        assertEquals("[(20, 0), (85, 15)]\n" +
+                "\t(80, 10) (85, 10) (80, 15)\n" +
+                "\t[(20, 0), (45, 15)]\n" +
+                "\t\t(20, 0) (25, 0) (20, 5)\n" +
+                "\t\t(40, 10) (45, 10) (40, 15)\n", bvh.toString());
+
+        // corner pairs with low. The right child grows to (0, 0)-(45, 15), perimeter 120, but far and high
+        // together only span (40, 10)-(85, 15), perimeter 100, so far trades places with the corner-low pair
+        bvh.insert(corner);
+        assertEquals("[(0, 0), (85, 15)]\n" +
+                "\t[(0, 0), (25, 5)]\n" +
+                "\t\t(20, 0) (25, 0) (20, 5)\n" +
+                "\t\t(0, 0) (5, 0) (0, 5)\n" +
+                "\t[(40, 10), (85, 15)]\n" +
+                "\t\t(80, 10) (85, 10) (80, 15)\n" +
+                "\t\t(40, 10) (45, 10) (40, 15)\n", bvh.toString());
+    }
+
+    @Test
+    public void surfaceAreaRotationsKeepInsertedTreesTight() {
+        List<Triangle> shapes = generateClusteredTriangles(800, 113);
+        Collections.shuffle(shapes, new Random(127));
+
+        BoundedVolumeHierarchy height = new BoundedVolumeHierarchy();
+        BoundedVolumeHierarchy surfaceArea = new BoundedVolumeHierarchy();
+        surfaceArea.setBalanceMethod(BoundedVolumeHierarchy.BalanceMethod.BALANCE_SURFACE_AREA);
+        for (Triangle triangle : shapes) {
+            height.insert(triangle);
+            surfaceArea.insert(triangle);
+        }
+        assertTrue(surfaceArea.calcSAHCost() < height.calcSAHCost(),
+                () -> surfaceArea.getCostReport() + " vs " + height.getCostReport());
+
+        List<Triangle> remaining = new ArrayList<>(shapes);
+        Random random = new Random(131);
+        for (int i = 0; i < 400; i++) {
+            surfaceArea.remove(remaining.remove(random.nextInt(remaining.size())));
+        }
+        assertEquals(2 * remaining.size() - 1, surfaceArea.freeze().getNodeCount());
+        assertMatchesBruteForceCollisions(surfaceArea, remaining);
+    }
+
+    @Test
+    public void surfaceAreaInsertPicksTheCheapestSibling() {
+        Triangle a = new Triangle(new Point(0, 0), new Point(5, 0), new Point(0, 5));
+        Triangle b = new Triangle(new Point(100, 0), new Point(105, 0), new Point(100, 5));
+        Triangle c = new Triangle(new Point(110, 0), new Point(115, 0), new Point(110, 5));
+        Triangle far = new Triangle(new Point(1000, 0), new Point(1005, 0), new Point(1000, 5));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.setBalanceMethod(BoundedVolumeHierarchy.BalanceMethod.BALANCE_SURFACE_AREA);
+        bvh.insert(a);
+        bvh.insert(b);
+
+        // next to b costs its union's perimeter 40 plus the root's growth 20, next to a 240 + 20, above the root 240
+        bvh.insert(c);
+        // next to the root costs 2020, anything under it at least 1820 plus the root's growth 1780
+        bvh.insert(far);
+        assertEquals("[(0, 0), (1005, 5)]\n" +
+                "\t[(0, 0), (115, 5)]\n" +
+                "\t\t(0, 0) (5, 0) (0, 5)\n" +
+                "\t\t[(100, 0), (115, 5)]\n" +
+                "\t\t\t(100, 0) (105, 0) (100, 5)\n" +
+                "\t\t\t(110, 0) (115, 0) (110, 5)\n" +
+                "\t(1000, 0) (1005, 0) (1000, 5)\n", bvh.toString());
+    }
+
+    @Test
+    public void incrementalInsertsAreDeterministicAndCloseToBulkBuilds() {
+        List<Triangle> shapes = generateClusteredTriangles(1000, 137);
+        Collections.shuffle(shapes, new Random(139));
+
+        for (BoundedVolumeHierarchy.BalanceMethod method : BoundedVolumeHierarchy.BalanceMethod.values()) {
+            BoundedVolumeHierarchy first = new BoundedVolumeHierarchy();
+            BoundedVolumeHierarchy second = new BoundedVolumeHierarchy();
+            first.setBalanceMethod(method);
+            second.setBalanceMethod(method);
+            for (Triangle triangle : shapes) {
+                first.insert(triangle);
+                second.insert(triangle);
+            }
+            assertEquals(first.toString(), second.toString(), method.toString());
+        }
+
+        BoundedVolumeHierarchy streamed = new BoundedVolumeHierarchy();
+        streamed.setBalanceMethod(BoundedVolumeHierarchy.BalanceMethod.BALANCE_SURFACE_AREA);
+        for (Triangle triangle : shapes) {
+            streamed.insert(triangle);
+        }
+        BoundedVolumeHierarchy built = new BoundedVolumeHierarchy();
+        built.setSplitMethod(BVH.SplitMethod.SPLIT_SURFACE_AREA);
+        built.buildBVH(toShapeList(shapes));
+        assertTrue(streamed.calcSAHCost() < 1.25 * built.calcSAHCost(),
+                () -> streamed.getCostReport() + " vs " + built.getCostReport());
+    }
+
+    @Test
+    public void boxOverlapQueryUsesExactTriangleGeometry() {
+        Triangle thin = new Triangle(new Point(0, -50), new Point(1, -50), new Point(0, 50));
+        Triangle corner = new Triangle(new Point(100, 100), new Point(120, 100), new Point(100, 120));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(thin, corner));
+
+        // the thin triangle passes between all five probe points of a 21x21 square centered at (0, 0) but crosses it
+        Rectangle2D.Double square = new Rectangle2D.Double(-10.5, -10.5, 21, 21);
+        assertEquals(Set.of(thin), bvh.findOverlaps(square));
+        assertTrue(bvh.hasOverlap(square));
+
+        // inside the corner triangle's bounding box but past its hypotenuse
+        Rectangle2D.Double pastHypotenuse = new Rectangle2D.Double(112, 112, 6, 6);
+        assertFalse(bvh.hasOverlap(pastHypotenuse));
+        assertTrue(bvh.findOverlaps(pastHypotenuse).isEmpty());
+
+        assertTrue(bvh.hasOverlap(new Rectangle2D.Double(102, 102, 2, 2))); // box inside the triangle
+        assertTrue(bvh.hasOverlap(new Rectangle2D.Double(90, 90, 40, 40))); // triangle inside the box
+        assertTrue(bvh.hasOverlap(new Rectangle2D.Double(110, 110, 5, 5))); // touches the hypotenuse at (110, 110)
+    }
+
+    @Test
+    public void boxOverlapQueryMatchesBruteForce() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 43);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(47);
+        int overlapping = 0;
+        for (int i = 0; i < 500; i++) {
+            // boxes land around a triangle's corner, so many of them only just miss or only just touch
+            Point corner = shapes.get(random.nextInt(shapes.size())).a;
+            Rectangle2D.Double box = new Rectangle2D.Double(corner.x + random.nextDouble() * 30 - 20, corner.y + random.nextDouble() * 30 - 20,
+                    random.nextDouble() * 12, random.nextDouble() * 12);
+            Set<Shape> expected = new HashSet<>();
+            for (Triangle triangle : shapes) {
+                if (clipsToNonEmpty(triangle, box)) {
+                    expected.add(triangle);
+                }
+            }
+            overlapping += expected.isEmpty() ? 0 : 1;
+            assertEquals(expected, bvh.findOverlaps(box));
+            assertEquals(!expected.isEmpty(), bvh.hasOverlap(box));
+        }
+        assertTrue(overlapping > 100 && overlapping < 400, overlapping + " of 500 boxes overlapped something");
+    }
+
+    @Test
+    public void boxOverlapChecksEverySeparatingAxis() {
+        // no edge is axis-aligned, so all five axes are distinct. Each box is kept apart by exactly one of them.
+        Triangle triangle = new Triangle(new Point(0, 0), new Point(30, 10), new Point(10, 30));
+        assertFalse(triangle.intersectsBox(-2, -3, -1, 1));  // x
+        assertFalse(triangle.intersectsBox(-3, -2, 1, -1));  // y
+        assertFalse(triangle.intersectsBox(1, -1, 2, 0));    // normal of a-b
+        assertFalse(triangle.intersectsBox(11, 30, 12, 31)); // normal of b-c
+        assertFalse(triangle.intersectsBox(-1, 1, 0, 2));    // normal of c-a
+
+        // the same boxes moved onto the triangle's boundary
+        assertTrue(triangle.intersectsBox(-1, -3, 0, 1));
+        assertTrue(triangle.intersectsBox(-3, -1, 1, 0));
+        assertTrue(triangle.intersectsBox(1, -1, 3, 1));
+        assertTrue(triangle.intersectsBox(10, 29, 11, 30));
+        assertTrue(triangle.intersectsBox(-1, 1, 1, 3));
+    }
+
+    // Clips the triangle to the box one side at a time, keeping boundary points, and reports whether anything is left
+    private boolean clipsToNonEmpty(Triangle triangle, Rectangle2D.Double box) {
+        List<double[]> polygon = new ArrayList<>();
+        for (Point vertex : new Point[]{triangle.a, triangle.b, triangle.c}) {
+            polygon.add(new double[]{vertex.x, vertex.y});
+        }
+        // each side keeps the points where normalX * x + normalY * y + offset >= 0
+        double[][] sides = {{1, 0, -box.getMinX()}, {-1, 0, box.getMaxX()}, {0, 1, -box.getMinY()}, {0, -1, box.getMaxY()}};
+        for (double[] side : sides) {
+            List<double[]> clipped = new ArrayList<>();
+            for (int i = 0; i < polygon.size(); i++) {
+                double[] p = polygon.get(i);
+                double[] q = polygon.get((i + 1) % polygon.size());
+                double pDistance = side[0] * p[0] + side[1] * p[1] + side[2];
+                double qDistance = side[0] * q[0] + side[1] * q[1] + side[2];
+                if (pDistance >= 0) {
+                    clipped.add(p);
+                }
+                if ((pDistance >= 0) != (qDistance >= 0)) {
+                    double t = pDistance / (pDistance - qDistance);
+                    clipped.add(new double[]{p[0] + t * (q[0] - p[0]), p[1] + t * (q[1] - p[1])});
+                }
+            }
+            polygon = clipped;
+            if (polygon.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void sweptBoxStopsAtFirstContact() {
+        Triangle wall = new Triangle(new Point(100, 0), new Point(102, 0), new Point(101, 200));
+        Triangle behindWall = new Triangle(new Point(150, 0), new Point(152, 0), new Point(151, 200));
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(wall, behindWall));
+
+        // a step long enough to jump past the thin wall still stops at it
+        SweepHit hit = new SweepHit();
+        assertTrue(bvh.sweepBox(new Rectangle2D.Double(80, 90, 10, 10), 100, 0, hit));
+        assertSame(wall, hit.shape);
+        assertEquals(0.1045, hit.time, 1E-9); // lower right corner meets the wall edge at (100.45, 90)
+        assertFalse(bvh.sweepBox(new Rectangle2D.Double(80, 90, 10, 10), 0, -50, hit));
+        assertNull(hit.shape);
+        assertTrue(bvh.sweepBox(new Rectangle2D.Double(95, 90, 10, 10), 0, 5, hit));
+        assertEquals(0, hit.time);
+    }
+
+    @Test
+    public void sweptBoxTimesCornerAndVertexContacts() {
+        // the box's (150, 150) corner moves along (-50, -100) onto the hypotenuse x + y = 200 at (116.7, 83.3): 300 - 150t = 200
+        Triangle slope = new Triangle(new Point(100, 0), new Point(200, 0), new Point(100, 100));
+        assertEquals(2.0 / 3, slope.sweepBox(150, 150, 160, 160, -50, -100), 1E-9);
+        assertEquals(Double.POSITIVE_INFINITY, slope.sweepBox(150, 150, 160, 160, -25, -50));  // stops at x + y = 225
+        assertEquals(Double.POSITIVE_INFINITY, slope.sweepBox(150, 150, 160, 160, -100, -50)); // crosses the line past (100, 100)
+
+        // the apex (100, 55) meets the box's left face x = 120 - 50t, before either left corner reaches a slanted edge
+        Triangle arrow = new Triangle(new Point(60, 40), new Point(60, 70), new Point(100, 55));
+        assertEquals(0.4, arrow.sweepBox(120, 50, 130, 60, -50, 0), 1E-9);
+        assertEquals(0.4, arrow.sweepBox(120, 50, 130, 60, -50, 1), 1E-9); // the face is still across the apex at y = 55.4
+        assertEquals(Double.POSITIVE_INFINITY, arrow.sweepBox(120, 56, 130, 66, -10, 0));
+
+        // rectangles sweep as the min corner entering the rectangle grown by the box's size
+        Rectangle block = new Rectangle(new Point(50, 5), new Point(60, 20));
+        assertEquals(0.4, block.sweepBox(0, 0, 10, 10, 100, 0), 1E-9);                                // right face onto x = 50
+        assertEquals(0.5, block.sweepBox(30, 30, 40, 40, 20, -20), 1E-9);                             // corner onto corner at (50, 20)
+        assertEquals(0, block.sweepBox(55, 0, 65, 10, 100, 100));                                      // already overlapping
+        assertEquals(Double.POSITIVE_INFINITY, block.sweepBox(0, 0, 10, 10, 30, 0));                  // stops short
+        assertEquals(Double.POSITIVE_INFINITY, block.sweepBox(0, 30, 10, 40, 100, 0));                // passes above
+        assertEquals(Double.POSITIVE_INFINITY, block.sweepBox(0, 0, 10, 10, 0, 0));                   // doesn't move
+    }
+
+    @Test
+    public void sweptBoxFindsTheEarlierOfTwoContactsAnUlpApart() {
+        // the box's top reaches both bottom edges on y = 702 together, but the two contact times round an ulp apart
+        Triangle first = new Triangle(new Point(765, 702), new Point(769, 702), new Point(765, 707));
+        Triangle second = new Triangle(new Point(776, 702), new Point(777, 702), new Point(776, 705));
+        Rectangle2D.Double box = new Rectangle2D.Double(696.2513004026747, 628.0170940877057, 10.821296523831037, 13.101900715238418);
+        double dx = 77.16659145591697;
+        double dy = 64.92538986918936;
+        double earliest = first.sweepBox(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), dx, dy);
+        assertEquals(Math.nextUp(earliest), second.sweepBox(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), dx, dy));
+
+        // inserted in either order, the node holding the first can't be culled by the second's slightly later contact
+        for (Triangle[] order : new Triangle[][]{{first, second}, {second, first}}) {
+            BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+            bvh.insert(order[0]);
+            bvh.insert(order[1]);
+            SweepHit hit = new SweepHit();
+            assertTrue(bvh.sweepBox(box, dx, dy, hit));
+            assertEquals(earliest, hit.time);
+            assertSame(first, hit.shape);
+        }
+    }
+
+    @Test
+    public void sweptBoxMatchesBruteForce() {
+        List<Triangle> shapes = generateClusteredTriangles(400, 53);
+        BoundedVolumeHierarchy bvh = new BoundedVolumeHierarchy();
+        bvh.buildBVH(toShapeList(shapes));
+
+        Random random = new Random(59);
+        SweepHit hit = new SweepHit();
+        for (int i = 0; i < 500; i++) {
+            Rectangle2D.Double box = new Rectangle2D.Double(random.nextDouble() * 1100 - 50, random.nextDouble() * 1100 - 50,
+                    random.nextDouble() * 20, random.nextDouble() * 20);
+            double dx = random.nextDouble() * 200 - 100;
+            double dy = random.nextDouble() * 200 - 100;
+            double expected = Double.POSITIVE_INFINITY;
+            for (Triangle triangle : shapes) {
+                expected = Math.min(expected, triangle.sweepBox(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), dx, dy));
+            }
+            assertEquals(expected != Double.POSITIVE_INFINITY, bvh.sweepBox(box, dx, dy, hit));
+            assertEquals(expected, hit.time);
+        }
+    }
+
     private Rectangle boundingBoxForTriangles(Triangle... triangles) {
         int minX = Integer.MAX_VALUE;
         int minY = Integer.MAX_VALUE;
@@ -386,6 +1592,23 @@ public class BVHTests {
         return triangles;
     }
 
+    private List<Triangle> generateClusteredTriangles(int count, long seed) {
+        Random random = new Random(seed);
+        int[][] clusterCenters = {{0, 0}, {40, 900}, {1000, 60}, {700, 700}};
+        List<Triangle> triangles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int[] center = clusterCenters[random.nextInt(clusterCenters.length)];
+            int x = center[0] + random.nextInt(80);
+            int y = center[1] + random.nextInt(80);
+            triangles.add(new Triangle(
+                    new Point(x, y),
+                    new Point(x + 1 + random.nextInt(8), y),
+                    new Point(x, y + 1 + random.nextInt(8))
+            ));
+        }
+        return triangles;
+    }
+
     private List<Shape> toShapeList(Shape... shapes) {
         return new ArrayList<>(Arrays.asList(shapes));
     }